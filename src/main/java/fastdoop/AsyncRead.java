@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * A positioned read issued in background, used by the record readers to
+ * fetch the initial bytes of the next input split while the current one is
+ * being read or parsed, so that reaching the end of the split does not
+ * require a further request to the file system.
+ *
+ * Positioned reads do not change the offset of the stream, so they can be
+ * issued while the stream is used by other positioned reads. Reads are run
+ * by a pool of daemon threads shared by all the record readers of the JVM.
+ */
+final class AsyncRead {
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "fastdoop-async-read-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Future<Integer> result;
+
+	private AsyncRead(Future<Integer> result) {
+		this.result = result;
+	}
+
+	/**
+	 * Starts reading up to length bytes of inputFile, from offset position,
+	 * in buffer starting at offset. buffer must not be accessed in that range
+	 * until {@link #get()} or {@link #cancel()} returns.
+	 */
+	public static AsyncRead start(final FSDataInputStream inputFile, final long position, final byte[] buffer,
+			final int offset, final int length) {
+
+		return new AsyncRead(EXECUTOR.submit(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws IOException {
+				return inputFile.read(position, buffer, offset, length);
+			}
+		}));
+	}
+
+	/**
+	 * Waits for the read to complete and returns the number of bytes read,
+	 * or -1 if position was past the end of the file, as
+	 * {@code FSDataInputStream.read(long, byte[], int, int)} does
+	 */
+	public int get() throws IOException {
+
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a read of the input file");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Cancels the read if it has not started yet, otherwise waits for it to
+	 * complete, so that the stream can be closed safely afterwards. Errors
+	 * of the read are ignored.
+	 */
+	public void cancel() {
+
+		if (result.cancel(false))
+			return;
+
+		try {
+			result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// The bytes are not needed anymore
+		}
+	}
+
+}
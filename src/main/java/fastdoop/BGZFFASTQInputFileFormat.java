@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+
+/**
+ * A {@code FileInputFormat} for reading gzip-compressed FASTQ files.
+ * 
+ * BGZF files (e.g., {@code .fastq.gz} files written by {@code bgzip}) are
+ * split as uncompressed files are, on ranges of compressed bytes, and each
+ * split is made of the blocks starting in its range, decompressed by its
+ * own reader. Other files, including gzip files that are not BGZF, are
+ * read as done by {@code FASTQInputFileFormat}.
+ * 
+ * @see FASTQInputFileFormat
+ * @see BGZFSplit
+ */
+public class BGZFFASTQInputFileFormat extends FASTQInputFileFormat {
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		return BGZFSplit.planSplits(super.getSplits(job), job.getConfiguration(), getMinSplitSize(job),
+				getMaxSplitSize(job));
+	}
+}
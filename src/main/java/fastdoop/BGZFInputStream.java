@@ -0,0 +1,369 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+
+/**
+ * A stream decompressing the blocks of an input split of a BGZF file (i.e.,
+ * a gzip file made of independent blocks of at most 64 KB, as written by
+ * {@code bgzip}), followed by the blocks of the next splits.
+ *
+ * The split holds the blocks starting in its range of compressed bytes. The
+ * first of them is found by looking, from the beginning of the split, for a
+ * block header followed, at the offset given by its block size, by either
+ * another block header or the end of the file. Since blocks are at most 64
+ * KB long, no more than 64 KB are scanned.
+ *
+ * Reads never cross the end of a block, and the position of the stream is
+ * the offset in the compressed file of the block holding the bytes read
+ * last, so that the blocks of the split can be told apart from the ones
+ * following it. Compressed bytes are fetched with positioned reads of at
+ * least 1 MB.
+ *
+ * @see BGZFSplit
+ * @see CodecSplitInputStream
+ */
+class BGZFInputStream extends SplitCompressionInputStream {
+
+	/*
+	 * Maximum size of a block, both compressed and uncompressed
+	 */
+	static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+	/*
+	 * Size of the fixed part of a block header, up to the extra field
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	/*
+	 * Size of the block trailer, holding the CRC32 and the uncompressed size
+	 */
+	private static final int TRAILER_SIZE = 8;
+
+	private static final int READ_SIZE = 1024 * 1024;
+
+	private final FSDataInputStream inputFile;
+
+	/*
+	 * Compressed bytes fetched from the input file
+	 */
+	private byte[] compressed = new byte[0];
+
+	private long compressedBufferStart;
+
+	private int compressedBufferSize;
+
+	/*
+	 * The block decompressed last, and the offset of the next byte to read
+	 */
+	private final byte[] block = new byte[MAX_BLOCK_SIZE];
+
+	private int blockSize;
+
+	private int posBlock;
+
+	private long blockCompressedStart;
+
+	/*
+	 * Offset of the next block to decompress, or -1 if the first block of
+	 * the split has not been found yet
+	 */
+	private long nextBlock = -1;
+
+	/*
+	 * Uncompressed size of the block found by the last invocation of
+	 * getBlockSize
+	 */
+	private int nextUncompressedSize;
+
+	private final Inflater inflater = new Inflater(true);
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Creates a stream decompressing the blocks of the BGZF file read by
+	 * inputFile, from the first one starting at offset start or later. The
+	 * adjusted end of the split is the offset of its last byte, since the
+	 * blocks starting there still belong to it.
+	 */
+	BGZFInputStream(FSDataInputStream inputFile, long start, long end) throws IOException {
+		super(inputFile, start, end);
+		this.inputFile = inputFile;
+		this.blockCompressedStart = start;
+		setEnd(end - 1);
+	}
+
+	/**
+	 * Returns true if header holds the beginning of a BGZF block, i.e., the
+	 * header of a gzip member with a 'BC' extra subfield
+	 */
+	static boolean isBGZF(byte[] header, int length) {
+
+		if (length < 18 || !isGzip(header, 0, length) || (header[3] & 0x04) == 0)
+			return false;
+
+		int xlen = readShort(header, 10);
+
+		return findBlockSize(header, HEADER_SIZE, Math.min(xlen, length - HEADER_SIZE)) >= 0;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		while (posBlock == blockSize) {
+			if (!nextBlock())
+				return -1;
+		}
+
+		int n = Math.min(length, blockSize - posBlock);
+
+		System.arraycopy(block, posBlock, buffer, offset, n);
+		posBlock += n;
+
+		return n;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] b = new byte[1];
+
+		return (read(b, 0, 1) > 0) ? b[0] & 0xFF : -1;
+	}
+
+	/**
+	 * The offset in the compressed file of the block holding the bytes read
+	 * last
+	 */
+	@Override
+	public long getPos() {
+		return blockCompressedStart;
+	}
+
+	@Override
+	public void resetState() {
+		posBlock = blockSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/*
+	 * Decompresses the next block, skipping the first bytes of the split if
+	 * they do not start a block. Returns false if the end of the file has
+	 * been reached
+	 */
+	private boolean nextBlock() throws IOException {
+
+		if (nextBlock < 0)
+			nextBlock = findFirstBlock(getAdjustedStart());
+
+		int compressedSize = getBlockSize(nextBlock);
+
+		if (compressedSize == 0)
+			return false;
+
+		if (compressedSize < 0)
+			throw new IOException("Not a BGZF block at offset " + nextBlock);
+
+		inflate(nextBlock, compressedSize);
+		nextBlock += compressedSize;
+
+		return true;
+	}
+
+	/*
+	 * Returns the offset of the first block starting at offset start or
+	 * later, or the one of the end of the file if there is no such block
+	 */
+	private long findFirstBlock(long start) throws IOException {
+
+		for (long c = start; c < start + MAX_BLOCK_SIZE; c++) {
+
+			int compressedSize = getBlockSize(c);
+
+			if (compressedSize == 0 || (compressedSize > 0 && getBlockSize(c + compressedSize) >= 0))
+				return c;
+		}
+
+		throw new IOException("No BGZF block found in the " + MAX_BLOCK_SIZE + " bytes following offset " + start
+				+ " of " + inputFile);
+	}
+
+	/*
+	 * Returns the compressed size of the block starting at offset position
+	 * of the compressed file, 0 if the end of the file has been reached, or
+	 * -1 if no valid block starts there. The uncompressed size of the block
+	 * is stored in nextUncompressedSize
+	 */
+	private int getBlockSize(long position) throws IOException {
+
+		int available = fetch(position, HEADER_SIZE);
+
+		if (available == 0)
+			return 0;
+
+		int posHeader = (int) (position - compressedBufferStart);
+
+		if (available < HEADER_SIZE || !isGzip(compressed, posHeader, available)
+				|| (compressed[posHeader + 3] & 0x04) == 0)
+			return -1;
+
+		int xlen = readShort(compressed, posHeader + 10);
+
+		if (fetch(position, HEADER_SIZE + xlen) < HEADER_SIZE + xlen)
+			return -1;
+
+		posHeader = (int) (position - compressedBufferStart);
+		int bsize = findBlockSize(compressed, posHeader + HEADER_SIZE, xlen);
+		int compressedSize = bsize + 1;
+
+		if (bsize < 0 || compressedSize < HEADER_SIZE + xlen + TRAILER_SIZE
+				|| fetch(position, compressedSize) < compressedSize)
+			return -1;
+
+		posHeader = (int) (position - compressedBufferStart);
+		nextUncompressedSize = readInt(compressed, posHeader + compressedSize - 4);
+
+		if (nextUncompressedSize < 0 || nextUncompressedSize > MAX_BLOCK_SIZE)
+			return -1;
+
+		return compressedSize;
+	}
+
+	/*
+	 * Decompresses the block starting at offset c of the compressed file,
+	 * whose sizes have just been read by getBlockSize
+	 */
+	private void inflate(long c, int compressedSize) throws IOException {
+
+		int posHeader = (int) (c - compressedBufferStart);
+		int xlen = readShort(compressed, posHeader + 10);
+		int dataStart = posHeader + HEADER_SIZE + xlen;
+		int dataLength = compressedSize - HEADER_SIZE - xlen - TRAILER_SIZE;
+
+		inflater.reset();
+		inflater.setInput(compressed, dataStart, dataLength);
+
+		int size;
+
+		try {
+			size = inflater.inflate(block, 0, nextUncompressedSize);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted BGZF block at offset " + c, e);
+		}
+
+		crc.reset();
+		crc.update(block, 0, size);
+
+		if (size != nextUncompressedSize || (int) crc.getValue() != readInt(compressed, dataStart + dataLength))
+			throw new IOException("Corrupted BGZF block at offset " + c);
+
+		blockSize = size;
+		posBlock = 0;
+		blockCompressedStart = c;
+	}
+
+	/*
+	 * Makes the compressed bytes from offset position up to position +
+	 * length available in the compressed buffer, if the file is long
+	 * enough. Returns the number of bytes available from position, at least
+	 * length if the end of the file has not been reached
+	 */
+	private int fetch(long position, int length) throws IOException {
+
+		long end = compressedBufferStart + compressedBufferSize;
+
+		if (position >= compressedBufferStart && position + length <= end)
+			return (int) (end - position);
+
+		int size = Math.max(length, READ_SIZE);
+
+		if (compressed.length < size)
+			compressed = new byte[size];
+
+		compressedBufferStart = position;
+		compressedBufferSize = 0;
+
+		while (compressedBufferSize < length) {
+
+			int read = inputFile.read(position + compressedBufferSize, compressed, compressedBufferSize,
+					compressed.length - compressedBufferSize);
+
+			if (read <= 0)
+				break;
+
+			compressedBufferSize += read;
+		}
+
+		return compressedBufferSize;
+	}
+
+	private static boolean isGzip(byte[] buffer, int offset, int length) {
+		return length >= 3 && (buffer[offset] & 0xFF) == 0x1F && (buffer[offset + 1] & 0xFF) == 0x8B
+				&& buffer[offset + 2] == 8;
+	}
+
+	/*
+	 * Returns the value of the 'BC' subfield of the extra field of a gzip
+	 * header starting at offset and xlen bytes long, or -1 if there is no
+	 * such subfield
+	 */
+	private static int findBlockSize(byte[] buffer, int offset, int xlen) {
+
+		int i = offset;
+
+		while (i + 4 <= offset + xlen) {
+
+			int slen = readShort(buffer, i + 2);
+
+			if (buffer[i] == 'B' && buffer[i + 1] == 'C' && slen == 2 && i + 6 <= offset + xlen)
+				return readShort(buffer, i + 4);
+
+			i += 4 + slen;
+		}
+
+		return -1;
+	}
+
+	private static int readShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return readShort(buffer, offset) | readShort(buffer, offset + 2) << 16;
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A {@code FileSplit} of a BGZF file (i.e., a gzip file made of independent
+ * blocks, as written by {@code bgzip}). As done for files compressed with a
+ * splittable codec, the start and the length of the split are offsets in
+ * the compressed file: the split holds the blocks starting in this range,
+ * and its reader looks for the first of them by itself. Hence, the blocks
+ * of the file are not read when the splits are planned.
+ *
+ * BGZF splits are created by {@code BGZFFASTAshortInputFileFormat} and
+ * {@code BGZFFASTQInputFileFormat}.
+ *
+ * @see FileSplit
+ * @see BGZFInputStream
+ */
+public class BGZFSplit extends FileSplit {
+
+	private static final double SPLIT_SLOP = 1.1;
+
+	public BGZFSplit() {
+		super();
+	}
+
+	public BGZFSplit(Path file, long start, long length, String[] hosts) {
+		super(file, start, length, hosts);
+	}
+
+	/**
+	 * Replaces the splits of BGZF files with {@code BGZFSplit}s, each
+	 * holding about splitSize compressed bytes, as {@code FileInputFormat}
+	 * does for uncompressed files. Only gzip files are checked, by reading
+	 * the header of their first block: since gzip is not splittable, they
+	 * have a single split, while the splits of the other files are kept.
+	 *
+	 * @param splits the splits planned by the input format
+	 * @param conf the job configuration
+	 * @param minSize the minimum size of a split
+	 * @param maxSize the maximum size of a split
+	 * @return the splits of the files
+	 * @throws IOException
+	 */
+	public static List<InputSplit> planSplits(List<InputSplit> splits, Configuration conf, long minSize,
+			long maxSize) throws IOException {
+
+		CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+		List<InputSplit> plannedSplits = new ArrayList<InputSplit>();
+
+		for (InputSplit genericSplit : splits) {
+
+			Path path = ((FileSplit) genericSplit).getPath();
+
+			if (!(codecs.getCodec(path) instanceof GzipCodec) || !isBGZF(path, conf)) {
+				plannedSplits.add(genericSplit);
+				continue;
+			}
+
+			FileSystem fs = path.getFileSystem(conf);
+			FileStatus file = fs.getFileStatus(path);
+			long length = file.getLen();
+			BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, length);
+			long splitSize = Math.max(minSize, Math.min(maxSize, file.getBlockSize()));
+			long start = 0;
+
+			while ((double) (length - start) / splitSize > SPLIT_SLOP) {
+				plannedSplits.add(new BGZFSplit(path, start, splitSize, hosts(blocks, start)));
+				start += splitSize;
+			}
+
+			plannedSplits.add(new BGZFSplit(path, start, length - start, hosts(blocks, start)));
+		}
+
+		return plannedSplits;
+	}
+
+	/*
+	 * Returns true if the file at path starts with a BGZF block
+	 */
+	private static boolean isBGZF(Path path, Configuration conf) throws IOException {
+
+		FSDataInputStream inputFile = path.getFileSystem(conf).open(path);
+
+		try {
+			byte[] header = new byte[18];
+			int read = 0;
+
+			while (read < header.length) {
+				int n = inputFile.read(header, read, header.length - read);
+
+				if (n < 0)
+					break;
+
+				read += n;
+			}
+
+			return BGZFInputStream.isBGZF(header, read);
+		} finally {
+			inputFile.close();
+		}
+	}
+
+	/*
+	 * Returns the hosts storing the block of the file holding the byte at
+	 * offset start
+	 */
+	private static String[] hosts(BlockLocation[] blocks, long start) throws IOException {
+
+		for (BlockLocation block : blocks) {
+			if (start >= block.getOffset() && start < block.getOffset() + block.getLength())
+				return block.getHosts();
+		}
+
+		return (blocks.length > 0) ? blocks[blocks.length - 1].getHosts() : new String[0];
+	}
+
+}
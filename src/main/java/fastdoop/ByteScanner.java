@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Utility class used by the record readers to look for delimiters ('\n',
+ * '{@literal >}', '@', '+') in a buffer.
+ *
+ * Buffers are scanned 8 bytes at a time: each group of bytes is read as a
+ * little-endian long through a {@code ByteBuffer} view and the position of
+ * the first byte equal to the delimiter, if any, is found with a few
+ * arithmetic operations (SWAR, SIMD within a register). Short ranges are
+ * scanned one byte at a time.
+ *
+ * When running on Java 17 or later with the {@code jdk.incubator.vector}
+ * module available, longer ranges are processed by the SIMD kernels of
+ * {@code VectorKernels} instead.
+ */
+final class ByteScanner {
+
+	/*
+	 * Ranges shorter than this are scanned one byte at a time
+	 */
+	private static final int MIN_SWAR_LENGTH = 16;
+
+	/*
+	 * Ranges shorter than this are not worth the set up of the vector
+	 * kernels, when available
+	 */
+	private static final int MIN_VECTOR_LENGTH = 64;
+
+	private static final long LOW_BITS = 0x0101010101010101L;
+
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private ByteScanner() {
+	}
+
+	/**
+	 * Returns the index of the first occurrence of delimiter in buffer,
+	 * between from (inclusive) and to (exclusive), or -1 if delimiter does
+	 * not occur in that range.
+	 */
+	public static int indexOf(byte[] buffer, int from, int to, byte delimiter) {
+
+		int pos = Math.max(from, 0);
+		to = Math.min(to, buffer.length);
+
+		if (VectorKernels.ENABLED && to - pos >= MIN_VECTOR_LENGTH)
+			return VectorKernels.indexOf(buffer, pos, to, delimiter);
+
+		return indexOfSwar(buffer, pos, to, delimiter);
+	}
+
+	/*
+	 * Scalar version of indexOf, with from and to already checked
+	 */
+	private static int indexOfSwar(byte[] buffer, int from, int to, byte delimiter) {
+
+		int pos = from;
+
+		if (to - pos >= MIN_SWAR_LENGTH) {
+
+			ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+			long pattern = (delimiter & 0xFFL) * LOW_BITS;
+
+			for (; pos <= to - 8; pos += 8) {
+
+				long match = firstZeroByte(words.getLong(pos) ^ pattern);
+
+				if (match != 0)
+					return pos + (Long.numberOfTrailingZeros(match) >>> 3);
+			}
+		}
+
+		for (; pos < to; pos++) {
+			if (buffer[pos] == delimiter)
+				return pos;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of delimiter in buffer,
+	 * between the absolute positions from (inclusive) and to (exclusive), or
+	 * -1 if delimiter does not occur in that range. The position of buffer
+	 * is not used, and to is clamped to its limit.
+	 */
+	public static int indexOf(ByteBuffer buffer, int from, int to, byte delimiter) {
+
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			int i = indexOf(buffer.array(), offset + Math.max(from, 0), offset + Math.min(to, buffer.limit()),
+					delimiter);
+
+			return (i >= 0) ? i - offset : -1;
+		}
+
+		int pos = Math.max(from, 0);
+		to = Math.min(to, buffer.limit());
+
+		/*
+		 * Direct and memory-mapped buffers are read 8 bytes at a time as
+		 * well, when their byte order allows to locate the first match
+		 */
+		if (to - pos >= MIN_SWAR_LENGTH && buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+
+			long pattern = (delimiter & 0xFFL) * LOW_BITS;
+
+			for (; pos <= to - 8; pos += 8) {
+
+				long match = firstZeroByte(buffer.getLong(pos) ^ pattern);
+
+				if (match != 0)
+					return pos + (Long.numberOfTrailingZeros(match) >>> 3);
+			}
+		}
+
+		for (; pos < to; pos++) {
+			if (buffer.get(pos) == delimiter)
+				return pos;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of delimiter in buffer,
+	 * between from (inclusive) and to (exclusive), that is the first
+	 * character of a line (i.e., it is at index 0 or it follows a '\n'), or
+	 * -1 if there is no such occurrence.
+	 */
+	public static int indexOfLineStart(byte[] buffer, int from, int to, byte delimiter) {
+
+		int pos = Math.max(from, 0);
+		to = Math.min(to, buffer.length);
+
+		if (pos >= to)
+			return -1;
+
+		/*
+		 * We look for the newline preceding the delimiter, which can be the
+		 * character before from
+		 */
+		if (pos == 0) {
+			if (buffer[0] == delimiter)
+				return 0;
+		} else {
+			pos--;
+		}
+
+		while (true) {
+
+			pos = indexOf(buffer, pos, to - 1, (byte) '\n');
+
+			if (pos < 0)
+				return -1;
+
+			if (buffer[pos + 1] == delimiter)
+				return pos + 1;
+
+			pos++;
+		}
+	}
+
+	/**
+	 * Same as {@link #indexOfLineStart(byte[], int, int, byte)}, on the
+	 * absolute positions of a {@code ByteBuffer}, up to its limit
+	 */
+	public static int indexOfLineStart(ByteBuffer buffer, int from, int to, byte delimiter) {
+
+		int pos = Math.max(from, 0);
+		to = Math.min(to, buffer.limit());
+
+		if (pos >= to)
+			return -1;
+
+		if (pos == 0) {
+			if (buffer.get(0) == delimiter)
+				return 0;
+		} else {
+			pos--;
+		}
+
+		while (true) {
+
+			pos = indexOf(buffer, pos, to - 1, (byte) '\n');
+
+			if (pos < 0)
+				return -1;
+
+			if (buffer.get(pos + 1) == delimiter)
+				return pos + 1;
+
+			pos++;
+		}
+	}
+
+	/**
+	 * Copies the bytes of src between from (inclusive) and to (exclusive) in
+	 * dest, starting at destPos, leaving out newline characters. dest must
+	 * have room for to - from bytes after destPos, and the bytes of dest
+	 * following the copied ones, within that room, may be overwritten.
+	 * Returns the number of bytes copied.
+	 */
+	public static int copyWithoutNewlines(byte[] src, int from, int to, byte[] dest, int destPos) {
+
+		int pos = Math.max(from, 0);
+		to = Math.min(to, src.length);
+
+		if (VectorKernels.ENABLED && to - pos >= MIN_VECTOR_LENGTH)
+			return VectorKernels.copyWithoutNewlines(src, pos, to, dest, destPos);
+
+		/*
+		 * The bytes between two consecutive newlines (i.e., a line of a
+		 * multi-line FASTA sequence) are copied with a single arraycopy
+		 */
+		int copied = 0;
+
+		while (pos < to) {
+
+			int newline = indexOfSwar(src, pos, to, (byte) '\n');
+			int end = (newline >= 0) ? newline : to;
+
+			System.arraycopy(src, pos, dest, destPos + copied, end - pos);
+			copied += end - pos;
+			pos = end + 1;
+		}
+
+		return copied;
+	}
+
+	/**
+	 * Copies the bytes of src between from (inclusive) and to (exclusive) in
+	 * dest, as done by {@link #copyWithoutNewlines}, leaving out carriage
+	 * returns as well, so that the lines of files with CRLF line terminators
+	 * are joined as the ones of files with LF terminators. Returns the number
+	 * of bytes copied.
+	 */
+	public static int copyWithoutLineTerminators(byte[] src, int from, int to, byte[] dest, int destPos) {
+
+		int end = destPos + copyWithoutNewlines(src, from, to, dest, destPos);
+		int cr = indexOf(dest, destPos, end, (byte) '\r');
+
+		if (cr < 0)
+			return end - destPos;
+
+		/*
+		 * The bytes between two consecutive carriage returns are moved back
+		 * with a single arraycopy
+		 */
+		int kept = cr;
+
+		while (cr < end) {
+
+			int next = indexOf(dest, cr + 1, end, (byte) '\r');
+
+			if (next < 0)
+				next = end;
+
+			System.arraycopy(dest, cr + 1, dest, kept, next - cr - 1);
+			kept += next - cr - 1;
+			cr = next;
+		}
+
+		return kept - destPos;
+	}
+
+	/*
+	 * Returns a word having the highest bit set in the first (least
+	 * significant) zero byte of word, and possibly in some of the following
+	 * ones. Returns 0 if no byte of word is zero.
+	 */
+	private static long firstZeroByte(long word) {
+		return (word - LOW_BITS) & ~word & HIGH_BITS;
+	}
+
+}
@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A view of the decompressed content of an input split of a file compressed
+ * with a codec known to Hadoop (e.g., bzip2).
+ *
+ * Splits of files compressed with a {@code SplittableCompressionCodec} are
+ * decompressed block by block: the content of the split is made of the
+ * blocks the codec assigns to it, as done by Hadoop's
+ * {@code LineRecordReader}, while the blocks following them are
+ * decompressed on demand, when the record readers look past the end of the
+ * split. Files compressed with other codecs are read as a single split.
+ *
+ * The content of the split is decompressed in memory when the view is
+ * opened. Offsets are virtual: the content starts at the offset of the
+ * split in the compressed file and it is followed by the decompressed bytes
+ * of the next splits.
+ *
+ * Splits of BGZF files are read in the same way, their blocks being
+ * decompressed by {@code BGZFInputStream} rather than by a codec.
+ *
+ * @see BGZFInputStream
+ */
+class CodecSplitInputStream extends FSInputStream {
+
+	private static final int READ_SIZE = 64 * 1024;
+
+	private final CompressionCodec codec;
+
+	private final Decompressor decompressor;
+
+	private final InputStream uncompressed;
+
+	/*
+	 * Virtual offset of the first byte of the content
+	 */
+	private final long start;
+
+	private byte[] content;
+
+	private int contentLength;
+
+	/*
+	 * Decompressed bytes following the content, fetched so far
+	 */
+	private byte[] lookAhead = new byte[0];
+
+	private int lookAheadLength;
+
+	/*
+	 * True, if the whole file has been decompressed
+	 */
+	private boolean endOfFile;
+
+	/*
+	 * Offset of the stream, used by the sequential reads
+	 */
+	private long pos;
+
+	private CodecSplitInputStream(CompressionCodec codec, Decompressor decompressor, InputStream uncompressed,
+			long start) {
+		this.codec = codec;
+		this.decompressor = decompressor;
+		this.uncompressed = uncompressed;
+		this.start = start;
+		this.pos = start;
+	}
+
+	/**
+	 * Returns the codec used to compress the file of split, or null if the
+	 * file is not compressed (BGZF splits are opened by
+	 * {@link #openBGZF(BGZFSplit, Configuration)} instead)
+	 */
+	static CompressionCodec getCodec(FileSplit split, Configuration conf) {
+
+		if (split instanceof BGZFSplit)
+			return null;
+
+		return new CompressionCodecFactory(conf).getCodec(split.getPath());
+	}
+
+	/**
+	 * Opens split through codec, decompressing its content
+	 */
+	static CodecSplitInputStream open(FileSplit split, Configuration conf, CompressionCodec codec)
+			throws IOException {
+
+		Path path = split.getPath();
+		FSDataInputStream inputFile = path.getFileSystem(conf).open(path);
+		Decompressor decompressor = CodecPool.getDecompressor(codec);
+		CodecSplitInputStream stream;
+
+		try {
+			if (codec instanceof SplittableCompressionCodec) {
+				SplitCompressionInputStream in = ((SplittableCompressionCodec) codec).createInputStream(inputFile,
+						decompressor, split.getStart(), split.getStart() + split.getLength(),
+						SplittableCompressionCodec.READ_MODE.BYBLOCK);
+
+				stream = new CodecSplitInputStream(codec, decompressor, in, split.getStart());
+				stream.readContent(in, in.getAdjustedEnd());
+			} else {
+				if (split.getStart() != 0)
+					throw new IOException("Files compressed with " + codec.getClass().getSimpleName()
+							+ " cannot be split: " + split);
+
+				stream = new CodecSplitInputStream(codec, decompressor,
+						codec.createInputStream(inputFile, decompressor), 0);
+				stream.readContent(null, Long.MAX_VALUE);
+			}
+		} catch (IOException e) {
+			CodecPool.returnDecompressor(decompressor);
+			inputFile.close();
+			throw e;
+		}
+
+		return stream;
+	}
+
+	/**
+	 * Opens a split of a BGZF file, decompressing the blocks starting in its
+	 * range of compressed bytes
+	 */
+	static CodecSplitInputStream openBGZF(BGZFSplit split, Configuration conf) throws IOException {
+
+		Path path = split.getPath();
+		FSDataInputStream inputFile = path.getFileSystem(conf).open(path);
+		CodecSplitInputStream stream;
+
+		try {
+			BGZFInputStream in = new BGZFInputStream(inputFile, split.getStart(), split.getStart() + split.getLength());
+
+			stream = new CodecSplitInputStream(null, null, in, split.getStart());
+			stream.readContent(in, in.getAdjustedEnd());
+		} catch (IOException e) {
+			inputFile.close();
+			throw e;
+		}
+
+		return stream;
+	}
+
+	/**
+	 * Returns the view wrapped by inputFile, or null if inputFile does not
+	 * wrap a view of a compressed split
+	 */
+	static CodecSplitInputStream unwrap(FSDataInputStream inputFile) {
+
+		if (inputFile.getWrappedStream() instanceof CodecSplitInputStream)
+			return (CodecSplitInputStream) inputFile.getWrappedStream();
+
+		return null;
+	}
+
+	/**
+	 * Returns the array holding the decompressed content of the split,
+	 * enlarged if needed so that at least extra bytes follow the content
+	 */
+	byte[] getContent(int extra) throws IOException {
+
+		content = Utils.ensureCapacity(content, contentLength, contentLength + extra, Integer.MAX_VALUE - 8);
+		return content;
+	}
+
+	/**
+	 * The number of decompressed bytes of the split
+	 */
+	int getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * The virtual length of the file: it is known only if the content of the
+	 * split reaches the end of the file, otherwise Long.MAX_VALUE is returned
+	 */
+	long getFileLength() {
+		return (endOfFile && lookAheadLength == 0) ? start + contentLength : Long.MAX_VALUE;
+	}
+
+	@Override
+	public synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+
+		if (position < start)
+			throw new IOException("Cannot read before the beginning of the input split: " + position);
+
+		if (length == 0)
+			return 0;
+
+		if (position - start < contentLength) {
+			int n = (int) Math.min(length, contentLength - (position - start));
+			System.arraycopy(content, (int) (position - start), buffer, offset, n);
+			return n;
+		}
+
+		long posLookAhead = position - start - contentLength;
+
+		while (posLookAhead + length > lookAheadLength && !endOfFile)
+			readLookAhead((int) Math.min(posLookAhead + length - lookAheadLength, Integer.MAX_VALUE - 8));
+
+		if (posLookAhead >= lookAheadLength)
+			return -1;
+
+		int n = (int) Math.min(length, lookAheadLength - posLookAhead);
+		System.arraycopy(lookAhead, (int) posLookAhead, buffer, offset, n);
+		return n;
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+
+		byte[] b = new byte[1];
+
+		return (read(b, 0, 1) > 0) ? b[0] & 0xFF : -1;
+	}
+
+	@Override
+	public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+
+		int read = read(pos, buffer, offset, length);
+
+		if (read > 0)
+			pos += read;
+
+		return read;
+	}
+
+	@Override
+	public synchronized void seek(long position) throws IOException {
+		pos = position;
+	}
+
+	@Override
+	public synchronized long getPos() throws IOException {
+		return pos;
+	}
+
+	@Override
+	public boolean seekToNewSource(long targetPos) throws IOException {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			uncompressed.close();
+		} finally {
+			CodecPool.returnDecompressor(decompressor);
+		}
+	}
+
+	/*
+	 * Decompresses the content of the split. A read belongs to the split if,
+	 * once completed, the position reported by the codec does not exceed
+	 * end: reads never cross block boundaries, and the position is updated
+	 * with the first read of each block
+	 */
+	private void readContent(SplitCompressionInputStream in, long end) throws IOException {
+
+		/*
+		 * Bytes are always read at the beginning of chunk, since the bzip2
+		 * codec reads the first byte of each block past the given offset
+		 */
+		byte[] chunk = new byte[READ_SIZE];
+		content = new byte[READ_SIZE];
+
+		while (true) {
+
+			int read = uncompressed.read(chunk, 0, chunk.length);
+
+			if (read < 0) {
+				endOfFile = true;
+				return;
+			}
+
+			if (in != null && in.getPos() > end) {
+				/*
+				 * These bytes belong to the next split
+				 */
+				appendLookAhead(chunk, 0, read);
+				return;
+			}
+
+			if (contentLength + read > Integer.MAX_VALUE - 8)
+				throw new IOException("The decompressed content of the input split is larger than 2 GB");
+
+			content = Utils.ensureCapacity(content, contentLength, contentLength + read, Integer.MAX_VALUE - 8);
+			System.arraycopy(chunk, 0, content, contentLength, read);
+			contentLength += read;
+		}
+	}
+
+	/*
+	 * Decompresses at least length bytes following the ones fetched so far,
+	 * unless the end of the file is reached first
+	 */
+	private void readLookAhead(int length) throws IOException {
+
+		byte[] chunk = new byte[READ_SIZE];
+		int fetched = 0;
+
+		while (fetched < length) {
+
+			int read = uncompressed.read(chunk, 0, chunk.length);
+
+			if (read < 0) {
+				endOfFile = true;
+				return;
+			}
+
+			appendLookAhead(chunk, 0, read);
+			fetched += read;
+		}
+	}
+
+	private void appendLookAhead(byte[] bytes, int offset, int length) throws IOException {
+
+		lookAhead = Utils.ensureCapacity(lookAhead, lookAheadLength, lookAheadLength + length, Integer.MAX_VALUE - 8);
+		System.arraycopy(bytes, offset, lookAhead, lookAheadLength, length);
+		lookAheadLength += length;
+	}
+
+	@Override
+	public String toString() {
+		return "CodecSplitInputStream(" + ((codec != null) ? codec.getClass().getSimpleName() : "BGZF") + ")";
+	}
+
+}
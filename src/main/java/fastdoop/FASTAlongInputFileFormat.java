@@ -20,9 +20,11 @@ package fastdoop;
 
 import java.io.IOException;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
@@ -31,6 +33,10 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
  * A {@code FileInputFormat} for reading FASTA files containing 
  * sequences of arbitrary length.
  * 
+ * Files compressed with a codec known to Hadoop are decompressed by the
+ * record readers, and they are split only if the codec is splittable
+ * (e.g., bzip2).
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
@@ -46,4 +52,9 @@ public class FASTAlongInputFileFormat extends FileInputFormat<Text, PartialSeque
 			throws IOException, InterruptedException {
 		return new LongReadsRecordReader();
 	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return Utils.isSplitable(context.getConfiguration(), filename);
+	}
 }
\ No newline at end of file
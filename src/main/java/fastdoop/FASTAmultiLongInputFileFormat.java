@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * A {@code FileInputFormat} for reading FASTA files containing any number
+ * of sequences of arbitrary length (e.g., multi-chromosome assemblies),
+ * without a {@code .fai} index.
+ * 
+ * Files compressed with a codec known to Hadoop are read as a single split,
+ * since the readers of the other splits would need to decompress the file
+ * backward, up to the header of the sequence they start in.
+ * 
+ * @see MultiLongReadsRecordReader
+ * @see FileInputFormat
+ */
+public class FASTAmultiLongInputFileFormat extends FileInputFormat<Text, PartialSequence> {
+
+	@Override
+	public RecordReader<Text, PartialSequence> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new MultiLongReadsRecordReader();
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return new CompressionCodecFactory(context.getConfiguration()).getCodec(filename) == null;
+	}
+}
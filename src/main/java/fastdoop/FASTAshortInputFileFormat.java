@@ -19,9 +19,12 @@
 package fastdoop;
 
 import java.io.IOException;
+import java.util.List;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
@@ -30,11 +33,20 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
  * A {@code FileInputFormat} for reading FASTA files containing 
  * short sequences.
  * 
+ * If the {@code record_aligned_splits} configuration parameter is set to
+ * true, the splits are planned as {@code RecordAlignedSplit}s, carrying the
+ * length of the file and the offset of their first record.
+ * 
+ * Files compressed with a codec known to Hadoop are decompressed by the
+ * record readers, and they are split only if the codec is splittable
+ * (e.g., bzip2).
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
  * 
  * @see FileInputFormat
+ * @see RecordAlignedSplit
  */
 public class FASTAshortInputFileFormat extends FileInputFormat<Text, Record> {
 
@@ -43,4 +55,20 @@ public class FASTAshortInputFileFormat extends FileInputFormat<Text, Record> {
 			throws IOException, InterruptedException {
 		return new ShortReadsRecordReader();
 	}
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+
+		List<InputSplit> splits = super.getSplits(job);
+
+		if (!job.getConfiguration().getBoolean("record_aligned_splits", false))
+			return splits;
+
+		return RecordAlignedSplit.alignSplits(splits, job.getConfiguration(), (byte) '>');
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return Utils.isSplitable(context.getConfiguration(), filename);
+	}
 }
\ No newline at end of file
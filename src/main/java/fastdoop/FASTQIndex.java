@@ -0,0 +1,554 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A sparse index of the records of a FASTQ file, storing the offset of one
+ * record out of every {@code interval}, together with its ordinal number
+ * (starting from 0). The index is stored next to the FASTQ file, in a text
+ * file having the same name plus the {@code .fqi} extension. Each line of
+ * the index holds an ordinal and an offset, separated by a tab, and the last
+ * line holds the number of records of the file and the offset following the
+ * last record. Records are expected to be made of four lines, as assumed by
+ * {@code FASTQReadsRecordReader}.
+ *
+ * When a FASTQ file comes with its index, {@code FASTQInputFileFormat} cuts
+ * the splits of the file exactly at the beginning of an indexed record,
+ * rather than guessing record starts, and any record of the file can be
+ * read by its ordinal number with {@link #getRecord(FSDataInputStream, long)}
+ * scanning at most {@code interval} records.
+ *
+ * The index of a file can be built with
+ * {@code hadoop jar fastdoop.jar fastdoop.FASTQIndex file [interval]}.
+ *
+ * @see FASTQInputFileFormat
+ */
+public class FASTQIndex {
+
+	public static final String EXTENSION = ".fqi";
+
+	/*
+	 * Number of records between two indexed records, when not specified
+	 */
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	/*
+	 * Size of the chunks read when scanning the lines of a file
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/*
+	 * Ordinals and offsets of the indexed records, followed by the number of
+	 * records and the offset following the last one
+	 */
+	private final long[] ordinals;
+
+	private final long[] offsets;
+
+	private FASTQIndex(long[] ordinals, long[] offsets) {
+		this.ordinals = ordinals;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * The path of the index of the FASTQ file at path
+	 */
+	public static Path getIndexPath(Path path) {
+		return new Path(path.toString() + EXTENSION);
+	}
+
+	/**
+	 * Reads the index of the FASTQ file at path. Returns null if the file has
+	 * no index, or if the index is older than the file.
+	 *
+	 * @throws IOException
+	 */
+	public static FASTQIndex load(Path path, Configuration conf) throws IOException {
+
+		Path indexPath = getIndexPath(path);
+		FileSystem fs = indexPath.getFileSystem(conf);
+
+		if (!fs.exists(indexPath))
+			return null;
+
+		if (fs.getFileStatus(indexPath).getModificationTime() < fs.getFileStatus(path).getModificationTime())
+			return null;
+
+		List<long[]> entries = new ArrayList<long[]>();
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(fs.open(indexPath), StandardCharsets.UTF_8))) {
+
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+
+				if (line.isEmpty())
+					continue;
+
+				String[] fields = line.split("\t");
+
+				try {
+					entries.add(new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) });
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					throw new IOException("Malformed line in " + indexPath + ": " + line);
+				}
+			}
+		}
+
+		if (entries.isEmpty())
+			throw new IOException("Empty index " + indexPath);
+
+		long[] ordinals = new long[entries.size()];
+		long[] offsets = new long[entries.size()];
+
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = entries.get(i)[0];
+			offsets[i] = entries.get(i)[1];
+		}
+
+		return new FASTQIndex(ordinals, offsets);
+	}
+
+	/**
+	 * Scans the FASTQ file at path and writes its index, storing the offset
+	 * of one record out of every interval.
+	 *
+	 * @return the index written
+	 * @throws IOException if the file is compressed, or if it is not made of
+	 * four-line records
+	 */
+	public static FASTQIndex build(Path path, Configuration conf, int interval) throws IOException {
+
+		if (interval <= 0)
+			throw new IllegalArgumentException("Invalid interval: " + interval);
+
+		if (new CompressionCodecFactory(conf).getCodec(path) != null)
+			throw new IOException("Cannot index compressed file " + path);
+
+		FileSystem fs = path.getFileSystem(conf);
+		long[] ordinals = new long[16];
+		long[] offsets = new long[16];
+		int entries = 0;
+
+		long records = 0;
+		long offset = 0;
+		long end = 0;
+
+		try (InputStream in = fs.open(path)) {
+
+			/*
+			 * Position of the current line within its record, and first
+			 * character of the current line
+			 */
+			int line = 0;
+			int first = -1;
+
+			/*
+			 * Only the first character of each line is checked, while the
+			 * rest of the line is skipped by looking for its newline
+			 */
+			byte[] chunk = new byte[CHUNK_SIZE];
+
+			for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+
+				int pos = 0;
+
+				while (pos < n) {
+
+					if (first < 0) {
+						byte b = chunk[pos];
+
+						if (line == 0 && b == '\n') {
+							/*
+							 * Blank lines between records are skipped
+							 */
+							pos++;
+							offset++;
+							continue;
+						}
+
+						if ((line == 0 && b != '@') || (line == 2 && b != '+'))
+							throw new IOException("Malformed record " + records + " at offset " + offset + " of " + path);
+
+						if (line == 0 && records % interval == 0) {
+							if (entries == ordinals.length) {
+								ordinals = Arrays.copyOf(ordinals, entries * 2);
+								offsets = Arrays.copyOf(offsets, entries * 2);
+							}
+
+							ordinals[entries] = records;
+							offsets[entries++] = offset;
+						}
+
+						first = b & 0xFF;
+					}
+
+					int newline = ByteScanner.indexOf(chunk, pos, n, (byte) '\n');
+
+					if (newline < 0) {
+						offset += n - pos;
+						break;
+					}
+
+					offset += newline + 1 - pos;
+					pos = newline + 1;
+					first = -1;
+
+					if (++line == 4) {
+						line = 0;
+						records++;
+						end = offset;
+					}
+				}
+			}
+
+			/*
+			 * The last record may lack the final newline
+			 */
+			if (line == 3 && first >= 0) {
+				records++;
+				end = offset;
+			} else if (line != 0 || first >= 0) {
+				throw new IOException("Truncated record " + records + " at the end of " + path);
+			}
+		}
+
+		ordinals = Arrays.copyOf(ordinals, entries + 1);
+		offsets = Arrays.copyOf(offsets, entries + 1);
+		ordinals[entries] = records;
+		offsets[entries] = end;
+
+		FASTQIndex index = new FASTQIndex(ordinals, offsets);
+
+		try (Writer writer = new OutputStreamWriter(fs.create(getIndexPath(path), true), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < ordinals.length; i++)
+				writer.write(ordinals[i] + "\t" + offsets[i] + "\n");
+		}
+
+		return index;
+	}
+
+	/**
+	 * The number of records of the indexed file
+	 */
+	public long getRecordCount() {
+		return ordinals[ordinals.length - 1];
+	}
+
+	/**
+	 * The offset following the last record of the indexed file
+	 */
+	public long getEndOffset() {
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * Returns the offset of the first indexed record starting at offset or
+	 * later, or {@link #getEndOffset()} if there is none
+	 */
+	public long ceilingOffset(long offset) {
+
+		int i = Arrays.binarySearch(offsets, offset);
+
+		if (i < 0)
+			i = Math.min(-i - 1, offsets.length - 1);
+
+		return offsets[i];
+	}
+
+	/**
+	 * Returns the offset of the record of ordinal n, scanning the file from
+	 * the closest indexed record preceding it.
+	 *
+	 * @param inputFile the stream of the indexed file
+	 * @param n ordinal of the record, starting from 0
+	 * @throws IOException
+	 */
+	public long getRecordOffset(FSDataInputStream inputFile, long n) throws IOException {
+
+		if (n < 0 || n >= getRecordCount())
+			throw new IndexOutOfBoundsException("Record " + n + " of " + getRecordCount());
+
+		int i = Arrays.binarySearch(ordinals, 0, ordinals.length - 1, n);
+
+		if (i < 0)
+			i = -i - 2;
+
+		LineScanner scanner = new LineScanner(inputFile, offsets[i], getEndOffset());
+
+		for (long skip = n - ordinals[i]; skip > 0; skip--)
+			scanner.skipRecord();
+
+		return scanner.getPosition();
+	}
+
+	/**
+	 * Reads the record of ordinal n, scanning the file from the closest
+	 * indexed record preceding it.
+	 *
+	 * @param inputFile the stream of the indexed file
+	 * @param n ordinal of the record, starting from 0
+	 * @throws IOException
+	 */
+	public QRecord getRecord(FSDataInputStream inputFile, long n) throws IOException {
+
+		long start = getRecordOffset(inputFile, n);
+		LineScanner scanner = new LineScanner(inputFile, start, getEndOffset());
+		long[] lineEnds = new long[4];
+
+		for (int i = 0; i < 4; i++)
+			lineEnds[i] = scanner.nextLine() - 1;
+
+		/*
+		 * The last record may lack the final newline
+		 */
+		int length = (int) (Math.min(lineEnds[3] + 1, getEndOffset()) - start);
+		byte[] buffer = new byte[length];
+		inputFile.readFully(start, buffer);
+
+		QRecord record = new QRecord();
+		record.setBuffer(buffer);
+		record.setStartKey(1);
+		record.setEndKey((int) (lineEnds[0] - start) - 1);
+		record.setStartValue((int) (lineEnds[0] - start) + 1);
+		record.setEndValue((int) (lineEnds[1] - start) - 1);
+		record.setStartKey2((int) (lineEnds[1] - start) + 2);
+		record.setEndKey2((int) (lineEnds[2] - start) - 1);
+		record.setStartQuality((int) (lineEnds[2] - start) + 1);
+		record.setEndQuality((int) (lineEnds[3] - start) - 1);
+
+		return record;
+	}
+
+	/**
+	 * Replaces the splits of the files having an index with
+	 * {@code RecordAlignedSplit}s starting at the beginning of an indexed
+	 * record. The start of each split is moved forward to the first indexed
+	 * record starting at or after it. Splits of files without an up-to-date
+	 * index, or compressed, are left unchanged.
+	 *
+	 * @param splits the splits computed by {@code FileInputFormat}
+	 * @param conf the job configuration
+	 * @return the aligned splits, in the same order
+	 * @throws IOException
+	 */
+	public static List<InputSplit> alignSplits(List<InputSplit> splits, Configuration conf) throws IOException {
+
+		List<InputSplit> alignedSplits = new ArrayList<InputSplit>(splits.size());
+		CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+
+		int i = 0;
+
+		while (i < splits.size()) {
+
+			/*
+			 * Splits of the same file are contiguous, so they are aligned
+			 * together
+			 */
+			Path path = ((FileSplit) splits.get(i)).getPath();
+			int first = i;
+
+			while (i < splits.size() && ((FileSplit) splits.get(i)).getPath().equals(path))
+				i++;
+
+			List<InputSplit> fileSplits = splits.subList(first, i);
+			FASTQIndex index = (codecs.getCodec(path) == null) ? load(path, conf) : null;
+			FileStatus status = path.getFileSystem(conf).getFileStatus(path);
+
+			if (index == null || index.getEndOffset() > status.getLen()) {
+				alignedSplits.addAll(fileSplits);
+				continue;
+			}
+
+			long fileLength = status.getLen();
+			FileSplit last = (FileSplit) fileSplits.get(fileSplits.size() - 1);
+			long end = last.getStart() + last.getLength();
+
+			/*
+			 * The first split keeps the beginning of the file, together with
+			 * any blank line preceding the first record. The others start at
+			 * the first indexed record following their start, and are dropped
+			 * if no record left follows it
+			 */
+			List<FileSplit> starts = new ArrayList<FileSplit>();
+			long prevStart = -1;
+
+			for (InputSplit genericSplit : fileSplits) {
+
+				FileSplit split = (FileSplit) genericSplit;
+				long start = starts.isEmpty() ? split.getStart() : index.ceilingOffset(split.getStart());
+
+				if (start > prevStart && start < end) {
+					starts.add(new FileSplit(path, start, 0, split.getLocations()));
+					prevStart = start;
+				}
+			}
+
+			for (int j = 0; j < starts.size(); j++) {
+
+				long start = starts.get(j).getStart();
+				long next = (j + 1 < starts.size()) ? starts.get(j + 1).getStart() : end;
+				long recordStart = index.ceilingOffset(start);
+
+				if (recordStart >= next || recordStart >= index.getEndOffset())
+					recordStart = RecordAlignedSplit.NO_RECORD;
+
+				alignedSplits.add(new RecordAlignedSplit(path, start, next - start, starts.get(j).getLocations(),
+						fileLength, recordStart));
+			}
+		}
+
+		return alignedSplits;
+	}
+
+	/**
+	 * Builds the index of the FASTQ files given as arguments.
+	 * Usage: {@code fastdoop.FASTQIndex file... [-i interval]}
+	 */
+	public static void main(String[] args) throws Exception {
+
+		GenericOptionsParser parser = new GenericOptionsParser(new Configuration(), args);
+		Configuration conf = parser.getConfiguration();
+		String[] files = parser.getRemainingArgs();
+		int interval = DEFAULT_INTERVAL;
+		List<String> paths = new ArrayList<String>();
+
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].equals("-i") && i + 1 < files.length)
+				interval = Integer.parseInt(files[++i]);
+			else
+				paths.add(files[i]);
+		}
+
+		if (paths.isEmpty()) {
+			System.err.println("Usage: fastdoop.FASTQIndex [-i interval] file...");
+			System.exit(1);
+		}
+
+		for (String file : paths) {
+			FASTQIndex index = build(new Path(file), conf, interval);
+			System.out.println(file + ": " + index.getRecordCount() + " records");
+		}
+	}
+
+	/*
+	 * Scans the lines of a file with positioned reads, without moving the
+	 * stream
+	 */
+	private static class LineScanner {
+
+		private final FSDataInputStream inputFile;
+
+		private final long end;
+
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+
+		private long chunkStart;
+
+		private int chunkLength;
+
+		private long position;
+
+		LineScanner(FSDataInputStream inputFile, long position, long end) {
+			this.inputFile = inputFile;
+			this.position = position;
+			this.end = end;
+			this.chunkStart = position;
+		}
+
+		long getPosition() {
+			return position;
+		}
+
+		/*
+		 * Moves past the end of the current line, and returns the offset of
+		 * the following one
+		 */
+		long nextLine() throws IOException {
+
+			while (position < end) {
+
+				if (position < chunkStart || position >= chunkStart + chunkLength) {
+					chunkStart = position;
+					chunkLength = inputFile.read(chunkStart, chunk, 0, (int) Math.min(chunk.length, end - chunkStart));
+
+					if (chunkLength <= 0)
+						throw new IOException("Unexpected end of file at offset " + chunkStart);
+				}
+
+				int from = (int) (position - chunkStart);
+				int i = ByteScanner.indexOf(chunk, from, chunkLength, (byte) '\n');
+
+				if (i >= 0) {
+					position = chunkStart + i + 1;
+					return position;
+				}
+
+				position = chunkStart + chunkLength;
+			}
+
+			/*
+			 * The last line may lack the final newline
+			 */
+			return end + 1;
+		}
+
+		void skipRecord() throws IOException {
+
+			for (int i = 0; i < 4; i++)
+				nextLine();
+
+			/*
+			 * Blank lines between records are skipped
+			 */
+			while (position < end && byteAt(position) == '\n')
+				position++;
+		}
+
+		private byte byteAt(long offset) throws IOException {
+
+			if (offset < chunkStart || offset >= chunkStart + chunkLength) {
+				chunkStart = offset;
+				chunkLength = inputFile.read(chunkStart, chunk, 0, (int) Math.min(chunk.length, end - chunkStart));
+			}
+
+			return chunk[(int) (offset - chunkStart)];
+		}
+	}
+}
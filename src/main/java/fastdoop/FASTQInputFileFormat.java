@@ -19,9 +19,12 @@
 package fastdoop;
 
 import java.io.IOException;
+import java.util.List;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
@@ -29,11 +32,25 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 /**
  * A {@code FileInputFormat} for reading FASTQ files.
  * 
+ * If the {@code record_aligned_splits} configuration parameter is set to
+ * true, the splits are planned as {@code RecordAlignedSplit}s, carrying the
+ * length of the file and the offset of their first record.
+ * 
+ * Files having an up-to-date {@code .fqi} index are split exactly at the
+ * beginning of an indexed record, unless the {@code fastq_index_splits}
+ * configuration parameter is set to false.
+ * 
+ * Files compressed with a codec known to Hadoop are decompressed by the
+ * record readers, and they are split only if the codec is splittable
+ * (e.g., bzip2).
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
  * 
  * @see FileInputFormat
+ * @see RecordAlignedSplit
+ * @see FASTQIndex
  */
 public class FASTQInputFileFormat extends FileInputFormat<Text, QRecord> {
 
@@ -45,4 +62,22 @@ public class FASTQInputFileFormat extends FileInputFormat<Text, QRecord> {
 
 	}
 
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+
+		List<InputSplit> splits = super.getSplits(job);
+
+		if (job.getConfiguration().getBoolean("fastq_index_splits", true))
+			splits = FASTQIndex.alignSplits(splits, job.getConfiguration());
+
+		if (!job.getConfiguration().getBoolean("record_aligned_splits", false))
+			return splits;
+
+		return RecordAlignedSplit.alignSplits(splits, job.getConfiguration(), (byte) '@');
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return Utils.isSplitable(context.getConfiguration(), filename);
+	}
 }
\ No newline at end of file
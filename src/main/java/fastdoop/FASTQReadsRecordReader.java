@@ -18,8 +18,9 @@
 
 package fastdoop;
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.fs.Path;
@@ -62,9 +63,16 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 	private QRecord currRecord;
 
 	/*
-	 * Used to buffer the content of the input split
+	 * Used to buffer the content of the input split, either loaded in the
+	 * heap or memory-mapped
 	 */
-	private byte[] myInputSplitBuffer;
+	private ByteBuffer myInputSplitBuffer;
+
+	/*
+	 * True, if myInputSplitBuffer has been taken from the pool of direct
+	 * buffers
+	 */
+	private boolean pooledSplitBuffer;
 
 	/*
 	 * Auxiliary buffer used to store the ending buffer of this input split and
@@ -72,6 +80,17 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 	 */
 	private byte[] borderBuffer;
 
+	/*
+	 * Maximum size borderBuffer can grow to
+	 */
+	private int maxBorderBufferSize;
+
+	/*
+	 * Initial bytes of the next input split, fetched only if a record crosses
+	 * the end of this input split
+	 */
+	private LookAheadBuffer lookAhead;
+
 	/*
 	 * Marks the current position in the input split buffer
 	 */
@@ -88,6 +107,15 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 	boolean isLastSplit = false;
 
+	/*
+	 * The fields of a FASTQ record. When the end of the input split is
+	 * reached while scanning a record, the field being scanned tells which
+	 * ones have to be completed using the initial bytes of the next split
+	 */
+	private enum Field {
+		KEY, VALUE, SECOND_HEADER, QUALITY
+	}
+
 	public FASTQReadsRecordReader() {
 		super();
 	}
@@ -102,73 +130,176 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 		
 		int look_ahead_buffer_size = context.getConfiguration().getInt("look_ahead_buffer_size", 4096);
 
+		maxBorderBufferSize = context.getConfiguration().getInt("look_ahead_buffer_max_size", 64 * 1024 * 1024);
+
+		boolean mmap_local_files = context.getConfiguration().getBoolean("mmap_local_files", false);
+
+		boolean use_direct_buffers = context.getConfiguration().getBoolean("use_direct_buffers", false);
+
+		boolean async_look_ahead = context.getConfiguration().getBoolean("async_look_ahead", true);
+
 		/*
 		 * We open the file corresponding to the input split and
 		 * start processing it
 		 */
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
-		fileLength = path.getFileSystem(job).getContentSummary(path).getLength();
+
+		/*
+		 * Record-aligned splits already know the length of the file and
+		 * where their first record starts
+		 */
+		RecordAlignedSplit alignedSplit = (split instanceof RecordAlignedSplit) ? (RecordAlignedSplit) split : null;
+
 		startByte = split.getStart();
-		inputFile = path.getFileSystem(job).open(path);
+		inputFile = Utils.openSplit(split, job);
 		Utils.safeSeek(inputFile, startByte);
 
+		/*
+		 * Splits of files compressed with a codec have already been
+		 * decompressed, and the length of the file is known only if this
+		 * is the last split
+		 */
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
+		fileLength = (decompressed != null) ? decompressed.getFileLength() : Utils.getFileLength(split, job);
+
 		currKey = new Text("null");
 		currRecord = new QRecord();
 
+		/*
+		 * The first look_ahead_buffer_size bytes of the next split, if any,
+		 * are fetched in background while the split is read and parsed
+		 */
+		long splitEnd = startByte + split.getLength();
+		boolean prefetch = async_look_ahead && splitEnd < fileLength && decompressed == null;
+
+		lookAhead = new LookAheadBuffer(inputFile, splitEnd, look_ahead_buffer_size, maxBorderBufferSize);
+
 		/*
 		 * We read the whole content of the split in memory using
-		 * myInputSplitBuffer. Plus, we read in the memory the first
-		 * KV_BUFFER_SIZE of the next split
+		 * myInputSplitBuffer. If the file is stored uncompressed on the local
+		 * file system, the split can be memory-mapped instead, or it can be read
+		 * in a direct buffer if the stream supports it. Plus, we read in the
+		 * memory the first KV_BUFFER_SIZE of the next split
 		 */
-		myInputSplitBuffer = new byte[(int) split.getLength()];
-		currRecord.setBuffer(myInputSplitBuffer);
+		if (mmap_local_files && !Utils.isCompressed(split, job))
+			myInputSplitBuffer = Utils.mapLocalFile(path, job, startByte, split.getLength());
+
+		if (myInputSplitBuffer == null && use_direct_buffers) {
+			myInputSplitBuffer = Utils.readDirect(inputFile, startByte, (int) split.getLength());
+			pooledSplitBuffer = (myInputSplitBuffer != null);
+		}
+
+		if (myInputSplitBuffer != null) {
+			sizeBuffer = myInputSplitBuffer.limit();
+		} else if (decompressed != null) {
+			sizeBuffer = decompressed.getContentLength();
+			myInputSplitBuffer = ByteBuffer.wrap(decompressed.getContent(0), 0, sizeBuffer);
+		} else {
+			/*
+			 * Both positioned reads are issued at the same time
+			 */
+			if (prefetch) {
+				lookAhead.prefetch();
+				prefetch = false;
+			}
+
+			byte[] inputSplitBytes = new byte[(int) split.getLength()];
+			myInputSplitBuffer = ByteBuffer.wrap(inputSplitBytes);
+			sizeBuffer = inputFile.read(startByte, inputSplitBytes, 0, inputSplitBytes.length);
+		}
+
+		currRecord.setByteBuffer(myInputSplitBuffer);
 
 		borderBuffer = new byte[look_ahead_buffer_size];
 
-		sizeBuffer = inputFile.read(startByte, myInputSplitBuffer, 0, myInputSplitBuffer.length);
-		Utils.safeSeek(inputFile,startByte + sizeBuffer);
+		if (sizeBuffer <= 0) {
+			endMyInputSplit = true;
+			return;
+		}
+
+		/*
+		 * If the split has not been read entirely, the look-ahead starts
+		 * right after the bytes read
+		 */
+		if (startByte + sizeBuffer != splitEnd) {
+			lookAhead.close();
+			lookAhead = new LookAheadBuffer(inputFile, startByte + sizeBuffer, look_ahead_buffer_size,
+					maxBorderBufferSize);
+		} else if (prefetch) {
+			lookAhead.prefetch();
+		}
 
 		boolean isEOF = (sizeBuffer < 0 || startByte + sizeBuffer >= fileLength);
 
 		if (isEOF) {
 			isLastSplit = true;
 			int newLineCount = 0;
-			int k = 1;
+			int limit = myInputSplitBuffer.limit();
 
-			while (myInputSplitBuffer[myInputSplitBuffer.length - k++] == '\n')
+			while (newLineCount < limit && myInputSplitBuffer.get(limit - 1 - newLineCount) == '\n')
 				newLineCount++;
 
-			byte[] tempBuffer = new byte[(int) split.getLength() - newLineCount];
-			System.arraycopy(myInputSplitBuffer, 0, tempBuffer, 0, myInputSplitBuffer.length - newLineCount);
-			myInputSplitBuffer = tempBuffer;
+			/*
+			 * Methods of Buffer are called through Buffer, since ByteBuffer
+			 * overrides them only since Java 9
+			 */
+			((Buffer) myInputSplitBuffer).limit(limit - newLineCount);
 		}
 
-		for (int i = 0; i < sizeBuffer; i++) {
-			if (myInputSplitBuffer[i] == '@') {
-				if (i == 0) {
-					posBuffer = i + 1;
-					break;
-				}
-				if (myInputSplitBuffer[i - 1] == '\n') {
-					posBuffer = i + 1;
-					break;
-				}
+		if (alignedSplit != null) {
 
-			}
+			if (alignedSplit.getRecordStart() == RecordAlignedSplit.NO_RECORD)
+				endMyInputSplit = true;
+			else
+				posBuffer = (int) (alignedSplit.getRecordStart() - startByte) + 1;
+
+			return;
 		}
 
+		int i = ByteScanner.indexOfLineStart(myInputSplitBuffer, 0, myInputSplitBuffer.limit(), (byte) '@');
+
 		/*
-		 * We skip the first header of the split
+		 * No record starts in this split
 		 */
-		int j = posBuffer;
+		if (i < 0) {
+			endMyInputSplit = true;
+			return;
+		}
+
+		posBuffer = i + 1;
 
-		while (myInputSplitBuffer[j] != '\n') {
-			j++;
+		/*
+		 * The line we found is a quality line starting with '@' if the
+		 * following line starts with '@' too. In this case we skip it. The
+		 * following line is looked for in the next split, if needed
+		 */
+		int endBuffer = myInputSplitBuffer.limit();
+		int j = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, endBuffer, (byte) '\n');
+		int nextLine;
+
+		if (j >= 0 && j + 1 < endBuffer)
+			nextLine = myInputSplitBuffer.get(j + 1);
+		else if (isLastSplit)
+			nextLine = -1;
+		else if (j >= 0)
+			nextLine = lookAhead.peek(0);
+		else {
+			int n = lookAhead.indexOf((byte) '\n');
+			nextLine = (n < 0) ? -1 : lookAhead.peek(n + 1);
 		}
 
-		if (myInputSplitBuffer[j + 1] == '@')
-			posBuffer = j + 2;
+		if (nextLine == '@') {
+
+			/*
+			 * If the record following the quality line starts in the next
+			 * split, no record starts in this split
+			 */
+			if (j >= 0 && j + 1 < endBuffer)
+				posBuffer = j + 2;
+			else
+				endMyInputSplit = true;
+		}
 	}
 
 	@Override
@@ -177,362 +308,325 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 			return false;
 		}
 
-		boolean nextsplitKey = false;
-		boolean nextsplitValue = false;
-		boolean nextsplitQuality = false;
-		boolean nextsplitSecondHeader = false;
+		/*
+		 * The field being scanned when the end of the split is reached, if
+		 * any
+		 */
+		Field truncated = null;
+		int endBuffer = myInputSplitBuffer.limit();
 
 		currRecord.setStartKey(posBuffer);
 
 		/*
 		 * We look for the next short sequence my moving posBuffer until a
 		 * newline character is found.
-		 * End of split is implicitly managed through
-		 * ArrayIndexOutOfBoundsException handling
 		 */
+		posBuffer = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, endBuffer, (byte) '\n');
 
-		try {
-			while (myInputSplitBuffer[posBuffer] != '\n') {
-				posBuffer++;
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			/*
-			 * If we reached the end of the split while scanning a sequence, we
-			 * use nextsplitKey to remember that more characters have to be
-			 * fetched from the next split for retrieving the key
-			 */
-			if (!isLastSplit) {
-				endMyInputSplit = true;
-				nextsplitKey = true;
-			} else {
-				return false;
-			}
+		if (posBuffer < 0) {
+			posBuffer = endBuffer;
+			truncated = Field.KEY;
 		}
 
 		currRecord.setEndKey(posBuffer - 1);
 
-		if (!endMyInputSplit) {
+		if (truncated == null) {
 			/*
 			 * Assuming there are more characters from the current split to
 			 * process, we move forward the pointer
 			 * until the symbol '+' is found
 			 *
-			 * posBuffer + 1 can potentially overrun the buffer end, since the exception above is not thrown
-			 * if the final character of the split is a \n. Check the offset accordingly.
+			 * posBuffer + 1 is past the end of the buffer if the final
+			 * character of the split is a \n. In this case, the value is
+			 * entirely contained in the next split
 			 */
-			currRecord.setStartValue(Utils.trimToEnd(myInputSplitBuffer, posBuffer + 1));
+			currRecord.setStartValue(posBuffer + 1);
 
-			try {
-				posBuffer = posBuffer + 2;
+			posBuffer = ByteScanner.indexOf(myInputSplitBuffer, posBuffer + 2, endBuffer, (byte) '+');
 
-				while (myInputSplitBuffer[posBuffer] != '+') {
-					posBuffer++;
-				}
+			if (posBuffer >= 0) {
 
 				currRecord.setEndValue(posBuffer - 2);
 				posBuffer++;
 
-			} catch (ArrayIndexOutOfBoundsException e) {
-
-				if (isLastSplit) {
-					return false;
-				}
+			} else {
+				posBuffer = endBuffer;
+				truncated = Field.VALUE;
 
 				/*
-				 * If we reached the end of the split while scanning a sequence,
-				 * we use nextsplitValue to remember that more characters have
-				 * to be fetched from the next split for retrieving the value
+				 * The newlines ending the split are not part of the value
 				 */
-
-				endMyInputSplit = true;
-				nextsplitValue = true;
 				int c = 0;
 
-				if (posBuffer > myInputSplitBuffer.length) {
-					posBuffer = myInputSplitBuffer.length;
-				}
-
-				for (int i = posBuffer - 1; i >= 0; i--) {
-					if (((char) myInputSplitBuffer[i]) != '\n')
-						break;
-
+				while (c < posBuffer && myInputSplitBuffer.get(posBuffer - 1 - c) == '\n')
 					c++;
-				}
 
 				currRecord.setEndValue(posBuffer - 1 - c);
-
 			}
-
 		}
 
-		if (!endMyInputSplit) {
-
-			//The exception above would not be thrown if the final character of the split is a +.
-			//Check the offset accordingly.
-			currRecord.setStartKey2(Utils.trimToEnd(myInputSplitBuffer, posBuffer));
-
-			try {
-
-				try {
-					while (myInputSplitBuffer[posBuffer] != '\n') {
-						posBuffer++;
-					}
-				} catch (ArrayIndexOutOfBoundsException e) {
-
-					if (isLastSplit) {
-						return false;
-					}
-					/*
-					 * If we reached the end of the split while scanning a
-					 * sequence,
-					 * we use nextsplitQuality to remember that more characters
-					 * have
-					 * to be fetched from the next split for retrieving (and
-					 * discarding)
-					 * the quality linevalue
-					 */
-					endMyInputSplit = true;
-					nextsplitSecondHeader = true;
-					nextsplitQuality = true;
-				}
-				currRecord.setEndKey2(posBuffer - 1);
-
-				if (!endMyInputSplit) {
-
-					//The exception above would not be thrown if the final character of the split is a newline.
-					//Check the offset accordingly.
-					currRecord.setStartQuality(Utils.trimToEnd(myInputSplitBuffer, posBuffer + 1));
-					currRecord.setEndQuality(currRecord.getStartQuality() + currRecord.getEndValue() - currRecord.getStartValue());
-					posBuffer = (currRecord.getEndQuality() + 3);
-
-					if (myInputSplitBuffer.length <= currRecord.getEndQuality()) {
-
-						currRecord.setEndQuality(myInputSplitBuffer.length - 1);
-						posBuffer = (myInputSplitBuffer.length - 1);
-
-						throw new ArrayIndexOutOfBoundsException();
-					} else {
-						if (posBuffer > (myInputSplitBuffer.length - 1)) {
-							endMyInputSplit = true;
-							return true;
-						}
-					}
-				}
-
-			} catch (ArrayIndexOutOfBoundsException e) {
-				if (isLastSplit) {
-					return false;
-				}
+		if (truncated == null) {
 
-				endMyInputSplit = true;
-				nextsplitQuality = true;
+			//posBuffer is past the end of the buffer if the final character of the split is a +.
+			//In this case, the second header is entirely contained in the next split.
+			currRecord.setStartKey2(posBuffer);
+
+			posBuffer = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, endBuffer, (byte) '\n');
+
+			if (posBuffer < 0) {
+				posBuffer = endBuffer;
+				truncated = Field.SECOND_HEADER;
 			}
 
+			currRecord.setEndKey2(posBuffer - 1);
 		}
 
-		/*
-		 * The end of the split has been reached
-		 */
-		if (endMyInputSplit) {
+		if (truncated == null) {
 
-			/*
-			 * If there is another split after this one and we still need to
-			 * retrieve the
-			 * key of the current record, we switch to borderbuffer to fetch all
-			 * the remaining characters
-			 */
+			//posBuffer + 1 is past the end of the buffer if the final character of the split is a newline.
+			//In this case, the quality line is entirely contained in the next split.
+			currRecord.setStartQuality(posBuffer + 1);
+			currRecord.setEndQuality(currRecord.getStartQuality() + currRecord.getEndValue() - currRecord.getStartValue());
 
-			if (nextsplitKey) {
-				currRecord.setBuffer(borderBuffer);
-				int j = posBuffer - currRecord.getStartKey();
-				System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
+			if (currRecord.getEndQuality() >= endBuffer) {
+				currRecord.setEndQuality(endBuffer - 1);
+				posBuffer = endBuffer - 1;
+				truncated = Field.QUALITY;
+			} else {
+				posBuffer = currRecord.getEndQuality() + 3;
+			}
+		}
 
-				posBuffer = j;
+		if (truncated == null) {
+			/*
+			 * If the '@' symbol starting the next record is not in this
+			 * split, there are no more records to read. If it is the last
+			 * character of the split, that record is still ours and is
+			 * completed using the next split
+			 */
+			if (posBuffer > endBuffer)
+				endMyInputSplit = true;
 
-				currRecord.setStartKey(0);
-				nextsplitValue = true;
-				
-				byte b;
+			return true;
+		}
 
-				try {
+		/*
+		 * The end of the split has been reached while scanning a record. If
+		 * there is another split after this one, we switch to borderBuffer
+		 * and fetch from the next split all the remaining characters of the
+		 * truncated field and of the following ones
+		 */
+		endMyInputSplit = true;
 
-					while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[j++] = b;
+		if (isLastSplit)
+			return false;
 
-				} catch (EOFException e) {
-					nextsplitValue = false;
-				}
+		currRecord.setBuffer(borderBuffer);
 
-				if (!nextsplitValue) {
-					return false;
-				}
+		switch (truncated) {
+		case KEY:
+			posBuffer = moveToBorder(currRecord.getStartKey(), posBuffer, 0);
+			currRecord.setStartKey(0);
 
-				currRecord.setEndKey(j - 1);
+			if (!fetchKeyFromLookAhead())
+				return false;
 
-			}
+			fetchValueFromLookAhead();
+			break;
 
-			/*
-			 * If there is another split after this one and we still need to
-			 * retrieve the value of the current record, we switch to
-			 * borderbuffer to fetch all the remaining characters
-			 */
-			if (nextsplitValue) {
+		case VALUE:
+			moveKeyToBorder();
+			moveValueToBorder();
+			posBuffer = currRecord.getEndValue() + 1;
 
-				if (!nextsplitKey) {
+			fetchValueFromLookAhead();
+			break;
 
-					currRecord.setBuffer(borderBuffer);
+		case SECOND_HEADER:
+			moveKeyToBorder();
+			moveValueToBorder();
+			moveSecondHeaderToBorder();
+			posBuffer = currRecord.getEndKey2() + 1;
 
-					int j = currRecord.getEndKey() + 1 - currRecord.getStartKey();
-					System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
+			fetchSecondHeaderFromLookAhead();
+			break;
 
-					currRecord.setStartKey(0);
-					currRecord.setEndKey(j - 1);
+		case QUALITY:
+			moveKeyToBorder();
+			moveValueToBorder();
+			moveSecondHeaderToBorder();
 
-					int start = currRecord.getStartValue();
-					currRecord.setStartValue(j);
+			int start = currRecord.getStartQuality();
+			currRecord.setStartQuality(currRecord.getEndKey2() + 1);
+			posBuffer = moveToBorder(start, currRecord.getEndQuality() + 1, currRecord.getStartQuality());
 
-					if ((currRecord.getEndValue() + 1 - start) > 0)
-						System.arraycopy(myInputSplitBuffer, start, borderBuffer, j, (currRecord.getEndValue() + 1 - start));
+			fetchQualityFromLookAhead();
+			break;
+		}
 
-					if ((currRecord.getEndValue() - start) < 0) {
-						posBuffer = j;
-					} else {
-						posBuffer = j + currRecord.getEndValue() - start;
-					}
+		return true;
 
-					currRecord.setEndValue(posBuffer);
+	}
 
-					posBuffer++;
+	/*
+	 * Fetches from the next split the remaining characters of the key of the
+	 * current record, storing them in borderBuffer starting at posBuffer.
+	 * Returns false if the key is not terminated by a newline
+	 */
+	private boolean fetchKeyFromLookAhead() throws IOException {
 
-				} else {
-					posBuffer = currRecord.getEndKey() + 1;
-					currRecord.setStartValue(posBuffer);
-				}
-				
-				byte b;
+		int n = lookAhead.indexOf((byte) '\n');
 
-				try {
-					while ((b = inputFile.readByte()) != '+') 
-						if (b != '\n')
-							borderBuffer[posBuffer++] = b;
-					
-				} catch (EOFException e) {}
+		if (n < 0)
+			return false;
 
-				currRecord.setEndValue(posBuffer - 1);
+		ensureBorderCapacity(posBuffer + n);
+		posBuffer += lookAhead.copyTo(borderBuffer, posBuffer, n, false);
+		lookAhead.skip(1);
 
-				posBuffer++;
-				currRecord.setStartKey2(posBuffer);
+		currRecord.setEndKey(posBuffer - 1);
+		currRecord.setStartValue(posBuffer);
 
-				try {
+		return true;
+	}
 
-					while ((b = inputFile.readByte()) != '\n')
-						borderBuffer[posBuffer++] = b;
-					
-					currRecord.setEndKey2(posBuffer - 1);
+	/*
+	 * Fetches from the next split the remaining characters of the value of
+	 * the current record, up to the '+' symbol starting the second header,
+	 * and the fields following it. Newlines are discarded
+	 */
+	private void fetchValueFromLookAhead() throws IOException {
 
-					currRecord.setStartQuality(posBuffer);
+		posBuffer += copyFromLookAhead((byte) '+', posBuffer, true);
 
-					while ((b = inputFile.readByte()) != '\n')
-						borderBuffer[posBuffer++] = b;
+		currRecord.setEndValue(posBuffer - 1);
 
-				} catch (EOFException e) {
-					// End file.
-				}
+		posBuffer++;
+		currRecord.setStartKey2(posBuffer);
 
-				currRecord.setEndQuality(posBuffer - 1);
+		fetchSecondHeaderFromLookAhead();
+	}
 
-			}
+	/*
+	 * Fetches from the next split the remaining characters of the second
+	 * header of the current record and its quality line
+	 */
+	private void fetchSecondHeaderFromLookAhead() throws IOException {
 
-			/*
-			 * If there is another split after this one and we still need to
-			 * retrieve the quality line of the current record, we switch to
-			 * borderbuffer to fetch all the remaining characters
-			 */
-			if (nextsplitQuality) {
+		posBuffer += copyFromLookAhead((byte) '\n', posBuffer, false);
 
-				currRecord.setBuffer(borderBuffer);
+		currRecord.setEndKey2(posBuffer - 1);
+		currRecord.setStartQuality(posBuffer);
 
-				// copy key
-				int j = currRecord.getEndKey() + 1 - currRecord.getStartKey();
-				System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
+		fetchQualityFromLookAhead();
+	}
 
-				currRecord.setStartKey(0);
-				currRecord.setEndKey(j - 1);
+	/*
+	 * Fetches from the next split the remaining characters of the quality
+	 * line of the current record
+	 */
+	private void fetchQualityFromLookAhead() throws IOException {
 
-				// copy value
-				int v = currRecord.getEndValue() + 1 - currRecord.getStartValue();
-				System.arraycopy(myInputSplitBuffer, currRecord.getStartValue(), borderBuffer, j, v);
+		posBuffer += copyFromLookAhead((byte) '\n', posBuffer, false);
 
-				currRecord.setStartValue(j);
-				currRecord.setEndValue(j + v - 1);
-				
-				byte b;
+		currRecord.setEndQuality(posBuffer - 1);
+	}
 
-				if (nextsplitSecondHeader) {
-					int start = currRecord.getStartKey2();
-					currRecord.setStartKey2(currRecord.getEndValue() + 1);
-					posBuffer = currRecord.getStartKey2();
+	/*
+	 * Copies the key of the current record at the beginning of borderBuffer
+	 */
+	private void moveKeyToBorder() throws IOException {
 
-					if ((currRecord.getEndKey2() + 1 - start) > 0)
-						System.arraycopy(myInputSplitBuffer, start, borderBuffer, currRecord.getStartKey2(),
-								(currRecord.getEndKey2() + 1 - start));
+		int end = moveToBorder(currRecord.getStartKey(), currRecord.getEndKey() + 1, 0);
 
-					posBuffer = currRecord.getStartKey2() + (currRecord.getEndKey2() - start);
+		currRecord.setStartKey(0);
+		currRecord.setEndKey(end - 1);
+	}
 
-					currRecord.setEndKey2(posBuffer);
-					posBuffer++;
+	/*
+	 * Copies the value of the current record in borderBuffer, after its key
+	 */
+	private void moveValueToBorder() throws IOException {
 
-					while ((b = inputFile.readByte()) != '\n')
-						borderBuffer[posBuffer++] = b;
+		int start = currRecord.getStartValue();
+		currRecord.setStartValue(currRecord.getEndKey() + 1);
+		currRecord.setEndValue(moveToBorder(start, currRecord.getEndValue() + 1, currRecord.getStartValue()) - 1);
+	}
 
-					
-					currRecord.setEndKey2(posBuffer - 1);
-					currRecord.setStartQuality(posBuffer);
+	/*
+	 * Copies the second header of the current record in borderBuffer, after
+	 * its value
+	 */
+	private void moveSecondHeaderToBorder() throws IOException {
 
-				} else {
+		int start = currRecord.getStartKey2();
+		currRecord.setStartKey2(currRecord.getEndValue() + 1);
+		currRecord.setEndKey2(moveToBorder(start, currRecord.getEndKey2() + 1, currRecord.getStartKey2()) - 1);
+	}
 
-					int s = currRecord.getEndKey2() + 1 - currRecord.getStartKey2();
-					System.arraycopy(myInputSplitBuffer, currRecord.getStartKey2(), borderBuffer, currRecord.getEndValue() + 1,
-							s);
-					currRecord.setStartKey2(currRecord.getEndValue() + 1);
-					currRecord.setEndKey2(currRecord.getStartKey2() + s - 1);
+	/*
+	 * Copies the bytes of the input split buffer between start (inclusive)
+	 * and end (exclusive) in borderBuffer, starting at destPos.
+	 * Returns the position following the last byte copied
+	 */
+	private int moveToBorder(int start, int end, int destPos) throws IOException {
 
-					int start = currRecord.getStartQuality();
-					currRecord.setStartQuality(currRecord.getEndKey2() + 1);
-					posBuffer = currRecord.getStartQuality();
+		if (end <= start)
+			return destPos;
 
-					if ((currRecord.getEndQuality() + 1 - start) > 0)
-						System.arraycopy(myInputSplitBuffer, start, borderBuffer, currRecord.getStartQuality(),
-								(currRecord.getEndQuality() + 1 - start));
+		ensureBorderCapacity(destPos + end - start);
+		Utils.copy(myInputSplitBuffer, start, borderBuffer, destPos, end - start);
 
-					posBuffer = currRecord.getStartQuality() + (currRecord.getEndQuality() - start);
+		return destPos + end - start;
+	}
 
-					currRecord.setEndQuality(posBuffer);
-					posBuffer++;
-				}
+	/*
+	 * Copies in borderBuffer, starting at destPos, the initial bytes of the
+	 * next split up to the first occurrence of delimiter (or to the end of
+	 * the file). The delimiter is consumed but not copied.
+	 * Returns the number of bytes copied
+	 */
+	private int copyFromLookAhead(byte delimiter, int destPos, boolean dropNewlines) throws IOException {
 
-				try {
+		int n = lookAhead.indexOf(delimiter);
+		boolean found = n >= 0;
 
-					while ((b = inputFile.readByte()) != '\n')
-						borderBuffer[posBuffer++] = b;
-					
-				} catch (EOFException e) {}
+		if (!found)
+			n = lookAhead.remaining();
 
-				currRecord.setEndQuality(posBuffer - 1);
+		ensureBorderCapacity(destPos + n);
+		int copied = lookAhead.copyTo(borderBuffer, destPos, n, dropNewlines);
 
-			}
+		if (found)
+			lookAhead.skip(1);
 
-		}
+		return copied;
+	}
 
-		return true;
+	/*
+	 * Enlarges borderBuffer, if needed, so that it can store at least
+	 * capacity bytes. Throws an IOException if more than
+	 * look_ahead_buffer_max_size bytes are required
+	 */
+	private void ensureBorderCapacity(int capacity) throws IOException {
 
+		borderBuffer = Utils.ensureCapacity(borderBuffer, borderBuffer.length, capacity, maxBorderBufferSize);
+		currRecord.setBuffer(borderBuffer);
 	}
 
 	@Override
 	public void close() throws IOException {
 
+		if (lookAhead != null)
+			lookAhead.close();
+
 		if (inputFile != null)
 			inputFile.close();
+
+		if (pooledSplitBuffer) {
+			Utils.releaseDirectBuffer(myInputSplitBuffer);
+			pooledSplitBuffer = false;
+		}
 	}
 
 	@Override
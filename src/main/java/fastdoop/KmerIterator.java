@@ -0,0 +1,353 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+/**
+ * Iterates over the k-mers of a {@code PartialSequence}, encoded with two
+ * bits per base (A = 0, C = 1, G = 2, T = 3, regardless of the case) in the
+ * low-order bits of a long, the first base being the most significant one.
+ *
+ * The k-mers returned are the ones starting in the first
+ * {@code getBytesToProcess()} bytes following {@code getStartValue()}, and
+ * they can extend up to {@code getEndValue()}. Newlines are skipped, while
+ * k-mers including any other character (e.g., N) are not returned. Each
+ * k-mer is computed from the previous one, and no object is allocated while
+ * iterating, so an iterator can be reused for several sequences by calling
+ * {@link #reset(PartialSequence)}. The k-mers of a {@code PackedSequence}
+ * are iterated in the same way, after calling
+ * {@link #reset(PackedSequence)}.
+ *
+ * For k up to 32 the whole k-mer is returned by {@link #get()}, while for k
+ * up to 64 it is split in two longs: {@link #get()} returns its last 32
+ * bases and {@link #getHigh()} the first k - 32 ones. The same holds for the
+ * canonical k-mer, i.e., the smallest between the k-mer and its reverse
+ * complement.
+ *
+ * Example:
+ * KmerIterator kmers = new KmerIterator(k);
+ * kmers.reset(sequence);
+ * while (kmers.next())
+ *     count(kmers.getCanonical());
+ */
+public class KmerIterator {
+
+	public static final int MAX_K = 64;
+
+	/*
+	 * Codes of the characters: 0-3 for bases, SKIP for the characters ending
+	 * a line and INVALID for the others
+	 */
+	private static final byte SKIP = -1;
+
+	private static final byte INVALID = -2;
+
+	private static final byte[] CODES = new byte[256];
+
+	static {
+		java.util.Arrays.fill(CODES, INVALID);
+		CODES['A'] = CODES['a'] = 0;
+		CODES['C'] = CODES['c'] = 1;
+		CODES['G'] = CODES['g'] = 2;
+		CODES['T'] = CODES['t'] = 3;
+		CODES['\n'] = CODES['\r'] = SKIP;
+	}
+
+	private final int k;
+
+	/*
+	 * Masks of the bits used by the k-mer in the low and high longs, and
+	 * shift placing the complement of a base at the beginning of the reverse
+	 * complement
+	 */
+	private final long lowMask;
+
+	private final long highMask;
+
+	private final int reverseShift;
+
+	private byte[] buffer;
+
+	private SegmentedBuffer segmentedBuffer;
+
+	/*
+	 * Used instead of the buffers when iterating over a packed sequence,
+	 * together with the index of its next run of characters other than A,
+	 * C, G and T
+	 */
+	private PackedSequence packed;
+
+	private int nextRun;
+
+	/*
+	 * Offset of the next byte to read, of the first byte where k-mers cannot
+	 * start and of the final byte of the sequence
+	 */
+	private long offset;
+
+	private long limit;
+
+	private long end;
+
+	/*
+	 * Number of bases read, number of bases read before limit (or -1 if limit
+	 * has not been reached yet) and number of consecutive valid bases read
+	 */
+	private long bases;
+
+	private long basesBeforeLimit;
+
+	private int validBases;
+
+	private long forward;
+
+	private long forwardHigh;
+
+	private long reverse;
+
+	private long reverseHigh;
+
+	public KmerIterator(int k) {
+
+		if (k < 1 || k > MAX_K)
+			throw new IllegalArgumentException("k must be between 1 and " + MAX_K + ": " + k);
+
+		this.k = k;
+		this.lowMask = (k >= 32) ? -1L : (1L << (2 * k)) - 1;
+		this.highMask = (k <= 32) ? 0 : (k == 64) ? -1L : (1L << (2 * (k - 32))) - 1;
+		this.reverseShift = 2 * ((k - 1) % 32);
+	}
+
+	/**
+	 * Starts iterating over the k-mers of sequence
+	 *
+	 * @return this iterator
+	 */
+	public KmerIterator reset(PartialSequence sequence) {
+
+		buffer = sequence.getBuffer();
+		segmentedBuffer = (buffer == null) ? sequence.getSegmentedBuffer() : null;
+		packed = null;
+
+		offset = sequence.getStartValueLong();
+		limit = offset + Math.max(sequence.getBytesToProcessLong(), 0);
+		end = sequence.getEndValueLong();
+
+		bases = 0;
+		basesBeforeLimit = -1;
+		validBases = 0;
+		forward = forwardHigh = reverse = reverseHigh = 0;
+
+		return this;
+	}
+
+	/**
+	 * Starts iterating over the k-mers of a packed sequence, starting in its
+	 * first {@code getBasesToProcess()} bases
+	 *
+	 * @return this iterator
+	 */
+	public KmerIterator reset(PackedSequence sequence) {
+
+		buffer = null;
+		segmentedBuffer = null;
+		packed = sequence;
+		nextRun = 0;
+
+		offset = 0;
+		limit = -1;
+		end = sequence.getLength() - 1;
+
+		bases = 0;
+		basesBeforeLimit = sequence.getBasesToProcess();
+		validBases = 0;
+		forward = forwardHigh = reverse = reverseHigh = 0;
+
+		return this;
+	}
+
+	/**
+	 * Moves to the next k-mer, returning false if there are no more k-mers
+	 */
+	public boolean next() {
+
+		if (packed != null)
+			return nextPacked();
+
+		while (offset <= end) {
+
+			if (offset == limit)
+				basesBeforeLimit = bases;
+
+			/*
+			 * The k-mer completed by the next base would start at or after
+			 * limit
+			 */
+			if (basesBeforeLimit >= 0 && bases + 1 - k >= basesBeforeLimit) {
+				offset = end + 1;
+				return false;
+			}
+
+			int code = CODES[(buffer != null ? buffer[(int) offset] : segmentedBuffer.get(offset)) & 0xFF];
+			offset++;
+
+			if (code == SKIP)
+				continue;
+
+			bases++;
+
+			if (code == INVALID) {
+				validBases = 0;
+				continue;
+			}
+
+			if (add(code))
+				return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * Moves to the next k-mer of a packed sequence, where offset is the
+	 * index of the next base
+	 */
+	private boolean nextPacked() {
+
+		while (offset <= end) {
+
+			/*
+			 * The k-mer completed by the next base would start at or after
+			 * the bases to process
+			 */
+			if (offset + 1 - k >= basesBeforeLimit) {
+				offset = end + 1;
+				return false;
+			}
+
+			if (nextRun < packed.getRunCount() && offset == packed.getRunStart(nextRun)) {
+				offset += packed.getRunLength(nextRun++);
+				bases = offset;
+				validBases = 0;
+				continue;
+			}
+
+			int code = packed.getCode(offset);
+			bases = ++offset;
+
+			if (add(code))
+				return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * Appends a base to the current k-mer, returning true if the k-mer is
+	 * made of k valid bases
+	 */
+	private boolean add(int code) {
+
+		if (k <= 32) {
+			forward = ((forward << 2) | code) & lowMask;
+			reverse = (reverse >>> 2) | ((long) (3 - code) << reverseShift);
+		} else {
+			forwardHigh = ((forwardHigh << 2) | (forward >>> 62)) & highMask;
+			forward = (forward << 2) | code;
+			reverse = (reverse >>> 2) | (reverseHigh << 62);
+			reverseHigh = (reverseHigh >>> 2) | ((long) (3 - code) << reverseShift);
+		}
+
+		if (validBases < k)
+			validBases++;
+
+		return validBases == k;
+	}
+
+	/**
+	 * The current k-mer, or its last 32 bases if k is larger than 32
+	 */
+	public long get() {
+		return forward;
+	}
+
+	/**
+	 * The first k - 32 bases of the current k-mer, if k is larger than 32,
+	 * or 0
+	 */
+	public long getHigh() {
+		return forwardHigh;
+	}
+
+	/**
+	 * The reverse complement of the current k-mer, or its last 32 bases if k
+	 * is larger than 32
+	 */
+	public long getReverseComplement() {
+		return reverse;
+	}
+
+	/**
+	 * The first k - 32 bases of the reverse complement of the current k-mer,
+	 * if k is larger than 32, or 0
+	 */
+	public long getReverseComplementHigh() {
+		return reverseHigh;
+	}
+
+	/**
+	 * The smallest between the current k-mer and its reverse complement, or
+	 * its last 32 bases if k is larger than 32
+	 */
+	public long getCanonical() {
+		return isForwardCanonical() ? forward : reverse;
+	}
+
+	/**
+	 * The first k - 32 bases of the smallest between the current k-mer and
+	 * its reverse complement, if k is larger than 32, or 0
+	 */
+	public long getCanonicalHigh() {
+		return isForwardCanonical() ? forwardHigh : reverseHigh;
+	}
+
+	/**
+	 * True, if the current k-mer is not larger than its reverse complement
+	 */
+	public boolean isForwardCanonical() {
+
+		if (forwardHigh != reverseHigh)
+			return Long.compareUnsigned(forwardHigh, reverseHigh) < 0;
+
+		return Long.compareUnsigned(forward, reverse) <= 0;
+	}
+
+	/**
+	 * The position of the first base of the current k-mer among the bases
+	 * of the sequence, starting from 0 (newlines excluded). If the position
+	 * of the sequence is known, the k-mer starts at position
+	 * {@code getSeqPosition() + getIndex()}
+	 */
+	public long getIndex() {
+		return bases - k;
+	}
+
+	public int getK() {
+		return k;
+	}
+}
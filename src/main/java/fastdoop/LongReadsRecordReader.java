@@ -19,6 +19,7 @@
 package fastdoop;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.fs.Path;
@@ -71,6 +72,11 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 	private boolean endMyInputSplit;
 
 	private int k;
+
+	/*
+	 * The buffer holding the split, released when the reader is closed
+	 */
+	private SegmentedBuffer splitBuffer;
 	
 	public LongReadsRecordReader() {
 		super();
@@ -97,24 +103,28 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
 		startByte = split.getStart();
-		inputFile = path.getFileSystem(job).open(path);
+		inputFile = Utils.openSplit(split, job);
 
 		currKey = new Text("null");
 		currValue = new PartialSequence();
 
 		/*
-		 * We read the whole content of the split in memory using
-		 * myInputSplitBuffer. Plus, we read in the memory the first
+		 * We read the whole content of the split in memory, plus the first
 		 * k+2 characters of the next split
 		 */
+		splitBuffer = readSplit(split, inputFile, job, k + 2);
 
-		int inputSplitSize = (int) split.getLength();
-		int otherbytesToReads = k + 2;
+		/*
+		 * Splits of files compressed with a codec have been decompressed,
+		 * so their length differs from the one of the split
+		 */
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
 
-		byte[] myInputSplitBuffer = new byte[(inputSplitSize + otherbytesToReads)];
-		currValue.setBuffer(myInputSplitBuffer);
+		long sizeBuffer1 = (decompressed != null) ? decompressed.getContentLength()
+				: Math.min(split.getLength(), splitBuffer.length());
+		long sizeBuffer2 = splitBuffer.length() - sizeBuffer1;
 
-		int sizeBuffer1 = inputFile.read(startByte, myInputSplitBuffer, 0, inputSplitSize);
+		currValue.setSegmentedBuffer(splitBuffer);
 
 		if (sizeBuffer1 <= 0) {
 			endMyInputSplit = true;
@@ -122,8 +132,6 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		} else
 			endMyInputSplit = false;
 
-		int sizeBuffer2 = inputFile.read((startByte + sizeBuffer1), myInputSplitBuffer, sizeBuffer1, otherbytesToReads);
-
 		boolean lastInputSplit = false;
 
 		/*
@@ -135,7 +143,7 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 			sizeBuffer2 = 0;
 		}
 
-		int posBuffer = 0;
+		long posBuffer = 0;
 
 		/*
 		 * If we are processing the first split of the HDFS file, then we need
@@ -143,14 +151,9 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		 */
 		if (startByte == 0) {
 
-			for (int i = 0; i < sizeBuffer1; i++) {
+			long i = splitBuffer.indexOf((byte) '\n', 0, sizeBuffer1);
 
-				posBuffer++;
-
-				if (myInputSplitBuffer[posBuffer - 1] == '\n')
-					break;
-
-			}
+			posBuffer = (i >= 0) ? i + 1 : sizeBuffer1;
 
 		}
 
@@ -162,7 +165,7 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 			currValue.setBytesToProcess(sizeBuffer1 - posBuffer);
 
 			if (sizeBuffer2 < (k - 1)) {
-				currValue.setBytesToProcess(currValue.getBytesToProcess() - ((k - 1) - sizeBuffer2));
+				currValue.setBytesToProcess(currValue.getBytesToProcessLong() - ((k - 1) - sizeBuffer2));
 			}
 
 		} else {
@@ -173,15 +176,15 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 
 			int c = 0;
 
-			for (int i = sizeBuffer1 - 1; i >= 0; i--) {
-				if (myInputSplitBuffer[i] != '\n')
+			for (long i = sizeBuffer1 - 1; i >= 0; i--) {
+				if (splitBuffer.get(i) != '\n')
 					break;
 
 				c++;
 			}
 
 			currValue.setBytesToProcess((sizeBuffer1 - posBuffer) - k + 1 - c);
-			if (currValue.getBytesToProcess() <= 0) {
+			if (currValue.getBytesToProcessLong() <= 0) {
 				endMyInputSplit = true;
 			}
 
@@ -190,7 +193,223 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		currValue.setHeader(path.getName());
 		currValue.setStartValue(posBuffer);
 		currValue.setEndValue(sizeBuffer1 + sizeBuffer2 - 1);
+		currValue.setSeqPosition(getSeqPosition(decompressed != null, sizeBuffer1, sizeBuffer2));
+
+	}
+
+	/*
+	 * Returns the position in the sequence of the first base of the split,
+	 * computed from the length of its lines, or -1 if it is not known (i.e.,
+	 * the lines of the split do not have the same length, or the split has
+	 * been decompressed and its offset in the file is not the one of its
+	 * bytes)
+	 */
+	private long getSeqPosition(boolean decompressed, long sizeBuffer1, long sizeBuffer2) throws IOException {
+
+		if (startByte == 0)
+			return 1;
+
+		if (decompressed)
+			return -1;
+
+		long headerEnd = findLineEnd(inputFile, 0);
+
+		if (headerEnd < 0 || headerEnd >= startByte)
+			return -1;
+
+		long bases = getPrecedingBases(splitBuffer, sizeBuffer1, sizeBuffer1 + sizeBuffer2, startByte - headerEnd - 1);
+
+		return (bases >= 0) ? bases + 1 : -1;
+	}
+
+	/*
+	 * Returns the offset of the first '\n' of the file following offset
+	 * from, or -1 if there is none
+	 */
+	static long findLineEnd(FSDataInputStream inputFile, long from) throws IOException {
+
+		byte[] chunk = new byte[4096];
+		long pos = from;
+
+		while (true) {
+
+			int read = inputFile.read(pos, chunk, 0, chunk.length);
+
+			if (read <= 0)
+				return -1;
+
+			int i = ByteScanner.indexOf(chunk, 0, read, (byte) '\n');
+
+			if (i >= 0)
+				return pos + i;
+
+			pos += read;
+		}
+	}
+
+	/*
+	 * Returns the number of characters that are not '\n' in the distance
+	 * bytes of a sequence preceding a split, computed from the length of the
+	 * lines of the split, or -1 if the lines of the split do not have the
+	 * same length or the distance does not agree with it. The split is
+	 * stored in the first sizeBuffer1 bytes of buffer, followed by the ones
+	 * of the next split up to offset end
+	 */
+	static long getPrecedingBases(SegmentedBuffer buffer, long sizeBuffer1, long end, long distance) {
+
+		long firstNewline = buffer.indexOf((byte) '\n', 0, end);
+		long lineLength = (firstNewline >= 0) ? getLineLength(buffer, firstNewline, sizeBuffer1, end) : 0;
+
+		if (lineLength <= 0)
+			return -1;
+
+		/*
+		 * The characters of the line the split starts in that precede the
+		 * split, and the bytes of the full lines preceding it
+		 */
+		long lineBases = lineLength - 1 - firstNewline;
+		long fullLines = distance - lineBases;
 
+		if (lineBases < 0 || fullLines < 0 || fullLines % lineLength != 0)
+			return -1;
+
+		return fullLines / lineLength * (lineLength - 1) + lineBases;
+	}
+
+	/*
+	 * Returns the length, '\n' included, of the lines of the sequence
+	 * following the first '\n' of the split, if at least two of them lie in
+	 * the split and they all have the same length, except possibly a shorter
+	 * last line. Otherwise, 0 is returned
+	 */
+	static long getLineLength(SegmentedBuffer buffer, long firstNewline, long sizeBuffer1, long end) {
+
+		long lineLength = 0;
+		int lines = 0;
+		long lineStart = firstNewline + 1;
+
+		while (lineStart < sizeBuffer1 && buffer.get(lineStart) != '>') {
+
+			long lineEnd = buffer.indexOf((byte) '\n', lineStart, end);
+
+			if (lineEnd < 0)
+				break;
+
+			if (lines == 0)
+				lineLength = lineEnd + 1 - lineStart;
+
+			if (lineEnd + 1 - lineStart != lineLength) {
+				boolean lastLine = lineEnd + 1 >= end || buffer.get(lineEnd + 1) == '>';
+
+				if (!lastLine || lineEnd + 1 - lineStart > lineLength)
+					return 0;
+
+				break;
+			}
+
+			lines++;
+			lineStart = lineEnd + 1;
+		}
+
+		return (lines >= 2 && lineLength > 1) ? lineLength : 0;
+	}
+
+	/**
+	 * Reads the whole content of split in memory, followed by the first
+	 * otherBytesToRead bytes of the next split (if any). If the file is
+	 * stored on the local file system, these bytes can be memory-mapped
+	 * instead. Splits larger than buffer_segment_size, as well as the ones
+	 * read in direct buffers, are stored in several segments, so that they
+	 * can be larger than 2 GB. The length of the returned buffer is the
+	 * number of bytes actually read.
+	 * 
+	 * @param split the input split
+	 * @param inputFile the stream returned by
+	 * {@link Utils#openSplit(FileSplit, Configuration)} for split
+	 * @param job the job configuration
+	 * @param otherBytesToRead number of bytes of the next split to be read
+	 * @return the bytes read, to be closed once they are not used anymore
+	 * @throws IOException
+	 */
+	static SegmentedBuffer readSplit(FileSplit split, FSDataInputStream inputFile, Configuration job,
+			int otherBytesToRead) throws IOException {
+
+		boolean mmap_local_files = job.getBoolean("mmap_local_files", false);
+
+		boolean use_direct_buffers = job.getBoolean("use_direct_buffers", false);
+
+		boolean async_look_ahead = job.getBoolean("async_look_ahead", true);
+
+		int buffer_segment_size = job.getInt("buffer_segment_size", 1 << 30);
+
+		long startByte = split.getStart();
+		long inputSplitSize = split.getLength();
+
+		SegmentedBuffer splitBuffer = null;
+
+		if (mmap_local_files && !Utils.isCompressed(split, job))
+			splitBuffer = SegmentedBuffer.map(split.getPath(), job, startByte, inputSplitSize + otherBytesToRead,
+					buffer_segment_size);
+
+		if (splitBuffer != null)
+			return splitBuffer;
+
+		/*
+		 * Splits of files compressed with a codec have already been
+		 * decompressed, and they are followed by the bytes of the next split
+		 */
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
+
+		if (decompressed != null) {
+			byte[] inputSplitBytes = decompressed.getContent(otherBytesToRead);
+			int sizeBuffer1 = decompressed.getContentLength();
+			int sizeBuffer2 = (sizeBuffer1 <= 0) ? 0
+					: inputFile.read((startByte + sizeBuffer1), inputSplitBytes, sizeBuffer1, otherBytesToRead);
+
+			return SegmentedBuffer.wrap(ByteBuffer.wrap(inputSplitBytes, 0, sizeBuffer1 + Math.max(sizeBuffer2, 0)));
+		}
+
+		if (use_direct_buffers || inputSplitSize + otherBytesToRead > buffer_segment_size)
+			return SegmentedBuffer.read(inputFile, startByte, inputSplitSize + otherBytesToRead, buffer_segment_size,
+					use_direct_buffers);
+
+		byte[] inputSplitBytes = new byte[(int) (inputSplitSize + otherBytesToRead)];
+
+		/*
+		 * The characters of the next split are read in background, while
+		 * the split is being read
+		 */
+		AsyncRead nextSplitRead = null;
+
+		if (async_look_ahead)
+			nextSplitRead = AsyncRead.start(inputFile, startByte + inputSplitSize, inputSplitBytes, (int) inputSplitSize,
+					otherBytesToRead);
+
+		int sizeBuffer1 = 0;
+
+		while (sizeBuffer1 < inputSplitSize) {
+			int read = inputFile.read(startByte + sizeBuffer1, inputSplitBytes, sizeBuffer1,
+					(int) inputSplitSize - sizeBuffer1);
+
+			if (read <= 0)
+				break;
+
+			sizeBuffer1 += read;
+		}
+
+		int sizeBuffer2;
+
+		if (nextSplitRead != null && sizeBuffer1 == inputSplitSize) {
+			sizeBuffer2 = nextSplitRead.get();
+		} else {
+			if (nextSplitRead != null)
+				nextSplitRead.cancel();
+
+			sizeBuffer2 = (sizeBuffer1 <= 0) ? 0
+					: inputFile.read((startByte + sizeBuffer1), inputSplitBytes, sizeBuffer1, otherBytesToRead);
+		}
+
+		return SegmentedBuffer.wrap(ByteBuffer.wrap(inputSplitBytes, 0, sizeBuffer1 + Math.max(sizeBuffer2, 0)));
 	}
 
 	@Override
@@ -208,6 +427,11 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 	public void close() throws IOException {// Close the record reader.
 		if (inputFile != null)
 			inputFile.close();
+
+		if (splitBuffer != null) {
+			splitBuffer.close();
+			splitBuffer = null;
+		}
 	}
 
 	@Override
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Utility class used to fetch the initial bytes of the next input split,
+ * when a record crosses the end of the current one.
+ *
+ * Bytes are fetched in chunks using positioned bulk reads and are scanned
+ * in memory. The look-ahead area grows by one chunk every time a delimiter
+ * cannot be found among the bytes fetched so far, up to a maximum size.
+ * The first chunk can be fetched in background, before it is needed.
+ */
+class LookAheadBuffer {
+
+	private final FSDataInputStream inputFile;
+
+	/*
+	 * Number of bytes fetched by each positioned read
+	 */
+	private final int chunkSize;
+
+	/*
+	 * Maximum size of the look-ahead area
+	 */
+	private final int maxSize;
+
+	/*
+	 * Offset in the input file of the byte following the ones fetched so far
+	 */
+	private long nextByte;
+
+	private byte[] buffer;
+
+	/*
+	 * Marks the first byte not yet consumed
+	 */
+	private int posBuffer;
+
+	/*
+	 * Stores the number of bytes fetched so far
+	 */
+	private int sizeBuffer;
+
+	/*
+	 * True, if we reached the end of the input file
+	 */
+	private boolean endOfFile;
+
+	/*
+	 * Read of the first chunk issued in background, if any
+	 */
+	private AsyncRead prefetch;
+
+	public LookAheadBuffer(FSDataInputStream inputFile, long startByte, int chunkSize, int maxSize) {
+		this.inputFile = inputFile;
+		this.nextByte = startByte;
+		this.chunkSize = Math.max(chunkSize, 1);
+		this.maxSize = Math.max(maxSize, this.chunkSize);
+		this.buffer = new byte[this.chunkSize];
+	}
+
+	/**
+	 * Starts fetching the first chunk of the look-ahead area in background,
+	 * so that it is likely to be available by the time it is needed
+	 */
+	public void prefetch() {
+
+		if (prefetch == null && sizeBuffer == 0 && !endOfFile)
+			prefetch = AsyncRead.start(inputFile, nextByte, buffer, 0, Math.min(chunkSize, buffer.length));
+	}
+
+	/**
+	 * Cancels the background fetch of the first chunk, if it is still
+	 * pending. To be invoked before closing the input file
+	 */
+	public void close() {
+
+		if (prefetch != null) {
+			prefetch.cancel();
+			prefetch = null;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes preceding the first occurrence of
+	 * delimiter among the bytes not consumed yet, fetching more bytes from
+	 * the input file if needed. Returns -1 if the end of the file is reached
+	 * before finding delimiter: in this case all the remaining bytes of the
+	 * file are available in the look-ahead area.
+	 */
+	public int indexOf(byte delimiter) throws IOException {
+
+		int scanPos = posBuffer;
+
+		while (true) {
+
+			int i = ByteScanner.indexOf(buffer, scanPos, sizeBuffer, delimiter);
+
+			if (i >= 0)
+				return i - posBuffer;
+
+			scanPos = sizeBuffer;
+
+			int consumed = posBuffer;
+
+			if (!fetch())
+				return -1;
+
+			scanPos -= consumed;
+		}
+	}
+
+	/**
+	 * Returns the byte following the first index bytes not consumed yet,
+	 * fetching more bytes from the input file if needed, without consuming
+	 * it. Returns -1 if the end of the file is reached first.
+	 */
+	public int peek(int index) throws IOException {
+
+		while (remaining() <= index) {
+			if (!fetch())
+				return -1;
+		}
+
+		return buffer[posBuffer + index];
+	}
+
+	/**
+	 * Returns the number of bytes available in the look-ahead area and not
+	 * consumed yet
+	 */
+	public int remaining() {
+		return sizeBuffer - posBuffer;
+	}
+
+	/**
+	 * Copies the next length bytes of the look-ahead area in dest, starting
+	 * at destPos, and consumes them. If dropNewlines is true, newline
+	 * characters are consumed but not copied.
+	 * Returns the number of bytes copied.
+	 */
+	public int copyTo(byte[] dest, int destPos, int length, boolean dropNewlines) {
+
+		int copied = length;
+
+		if (!dropNewlines)
+			System.arraycopy(buffer, posBuffer, dest, destPos, length);
+		else
+			copied = ByteScanner.copyWithoutNewlines(buffer, posBuffer, posBuffer + length, dest, destPos);
+
+		posBuffer += length;
+		return copied;
+	}
+
+	/**
+	 * Consumes the next length bytes of the look-ahead area
+	 */
+	public void skip(int length) {
+		posBuffer = Math.min(posBuffer + length, sizeBuffer);
+	}
+
+	/*
+	 * Fetches the next chunk of bytes of the input file. Consumed bytes are
+	 * discarded first, while the look-ahead area is enlarged if it is still
+	 * full afterwards.
+	 * Returns false if the end of the file has been reached. Throws an
+	 * IOException if the look-ahead area cannot be enlarged anymore
+	 */
+	private boolean fetch() throws IOException {
+
+		if (endOfFile)
+			return false;
+
+		int read;
+
+		if (prefetch != null) {
+			/*
+			 * The first chunk has been requested already, and the
+			 * look-ahead area is still empty
+			 */
+			AsyncRead pending = prefetch;
+			prefetch = null;
+			read = pending.get();
+		} else {
+			if (posBuffer > 0) {
+				System.arraycopy(buffer, posBuffer, buffer, 0, sizeBuffer - posBuffer);
+				sizeBuffer -= posBuffer;
+				posBuffer = 0;
+			}
+
+			if (sizeBuffer == buffer.length)
+				buffer = Utils.ensureCapacity(buffer, sizeBuffer, sizeBuffer + 1, maxSize);
+
+			read = inputFile.read(nextByte, buffer, sizeBuffer, Math.min(chunkSize, buffer.length - sizeBuffer));
+		}
+
+		if (read <= 0) {
+			endOfFile = true;
+			return false;
+		}
+
+		sizeBuffer += read;
+		nextByte += read;
+		return true;
+	}
+
+}
@@ -0,0 +1,508 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * This class reads {@literal <key, value>} pairs from an {@code InputSplit}
+ * of a FASTA file containing any number of sequences of arbitrary length
+ * (e.g., the chromosomes of an assembly), without requiring a {@code .fai}
+ * index.
+ *
+ * Each pair is a fragment of a sequence: the key is the identifier of the
+ * sequence (i.e., the first word of its header line) and the value is a
+ * {@code PartialSequence} holding the part of the sequence lying in the
+ * split, plus the first k-1 characters following it in the next split, as
+ * done by {@code LongReadsRecordReader}. A sequence belongs to the splits
+ * holding its characters, regardless of where its header line is.
+ *
+ * The reader of a split starting in the middle of a sequence reads the file
+ * backward, from the beginning of the split up to the header line of the
+ * sequence, in order to find its identifier. The backward scan is bounded by
+ * the {@code header_scan_size} configuration parameter (default: 256 MB):
+ * if no header line is found within this many bytes, the identifier of the
+ * fragment is empty and its position is unknown (i.e., -1).
+ *
+ * The position of the fragment in the sequence is computed from the length
+ * of the lines of the split, assuming, as {@code .fai} indexes do, that all
+ * the lines of a sequence but the last one have the same length. If the
+ * lines of the split do not allow this, the characters between the header
+ * line and the split are read again and counted.
+ *
+ * @see FASTAmultiLongInputFileFormat
+ * @see IndexedFastaReader
+ */
+public class MultiLongReadsRecordReader extends RecordReader<Text, PartialSequence> {
+
+	/*
+	 * Maximum size of the chunks read when looking for the header of the
+	 * sequence the split starts in
+	 */
+	private static final int HEADER_SCAN_SIZE = 1024 * 1024;
+
+	/*
+	 * Returned by findPrecedingHeader when the header is farther than
+	 * header_scan_size bytes
+	 */
+	private static final long UNKNOWN = -2;
+
+	private FSDataInputStream inputFile;
+
+	private long startByte;
+
+	private int k;
+
+	private SegmentedBuffer splitBuffer;
+
+	private long sizeBuffer1;
+
+	private long sizeBuffer2;
+
+	/*
+	 * The byte preceding the split, if any
+	 */
+	private byte precedingByte = '\n';
+
+	/*
+	 * Position in the split buffer of the next header to parse or, if
+	 * fragmentStart is not -1, of the end of the fragment to return next
+	 */
+	private long posBuffer;
+
+	/*
+	 * The fragment to return next, if any: the position of its first
+	 * character in the split buffer, the identifier of its sequence, and
+	 * its position in the sequence
+	 */
+	private long fragmentStart = -1;
+
+	private String fragmentId;
+
+	private long fragmentSeqPosition;
+
+	private Text currKey;
+
+	private PartialSequence currValue;
+
+	/*
+	 * The header line read last by readHeaderLine
+	 */
+	private String headerLine;
+
+	@Override
+	public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+
+		Configuration job = context.getConfiguration();
+
+		/*
+		 * k determines how many bytes of the next input split (if any)
+		 * should be retrieved together with the bytes of the current
+		 * input split.
+		 */
+		k = job.getInt("k", 10);
+
+		FileSplit split = (FileSplit) genericSplit;
+		startByte = split.getStart();
+		inputFile = Utils.openSplit(split, job);
+
+		splitBuffer = LongReadsRecordReader.readSplit(split, inputFile, job, k + 2);
+
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
+
+		sizeBuffer1 = (decompressed != null) ? decompressed.getContentLength()
+				: Math.min(split.getLength(), splitBuffer.length());
+		sizeBuffer2 = splitBuffer.length() - sizeBuffer1;
+
+		if (sizeBuffer1 <= 0 || startByte == 0)
+			return;
+
+		byte[] b = new byte[1];
+		inputFile.readFully(startByte - 1, b);
+		precedingByte = b[0];
+
+		/*
+		 * If the split starts with a header line, possibly preceded by empty
+		 * lines, there is nothing to look for
+		 */
+		long firstHeader = findNextHeader(0);
+
+		if (firstHeader >= 0 && trimNewlines(0, firstHeader) < 0) {
+			posBuffer = firstHeader;
+			return;
+		}
+
+		/*
+		 * Otherwise, we look for the header of the sequence the split starts
+		 * in
+		 */
+		long headerStart = findPrecedingHeader(job.getLong("header_scan_size", 256L * 1024 * 1024));
+
+		if (headerStart == UNKNOWN) {
+			/*
+			 * The header is too far from the split: the identifier and the
+			 * position of the fragment are unknown
+			 */
+			fragmentStart = 0;
+			fragmentId = "";
+			fragmentSeqPosition = -1;
+			return;
+		}
+
+		if (headerStart < 0) {
+			/*
+			 * No header precedes the split: the file starts with an
+			 * unnamed sequence
+			 */
+			fragmentStart = 0;
+			fragmentId = "";
+			fragmentSeqPosition = countPrecedingBases(0) + 1;
+			return;
+		}
+
+		long headerEnd = readHeaderLine(headerStart);
+
+		if (headerEnd >= startByte) {
+			/*
+			 * The split starts in the header line, so the sequence starts
+			 * in this split (or in the following ones)
+			 */
+			fragmentStart = headerEnd + 1 - startByte;
+			fragmentSeqPosition = 1;
+		} else {
+			fragmentStart = 0;
+			fragmentSeqPosition = countPrecedingBases(headerEnd + 1) + 1;
+		}
+
+		fragmentId = getId(headerLine);
+		posBuffer = fragmentStart;
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+
+		while (true) {
+
+			if (fragmentStart >= 0 && fragmentStart < sizeBuffer1) {
+				if (nextFragment())
+					return true;
+
+				continue;
+			}
+
+			fragmentStart = -1;
+
+			if (posBuffer >= sizeBuffer1)
+				return false;
+
+			if (splitBuffer.get(posBuffer) != '>') {
+				/*
+				 * Only the first split of a file not starting with a header
+				 * line gets here
+				 */
+				fragmentStart = posBuffer;
+				fragmentId = "";
+				fragmentSeqPosition = 1;
+				continue;
+			}
+
+			/*
+			 * The header line is usually in the split buffer, otherwise it
+			 * is read from the file
+			 */
+			long lineEnd = splitBuffer.indexOf((byte) '\n', posBuffer, sizeBuffer1 + sizeBuffer2);
+
+			if (lineEnd >= 0) {
+				headerLine = new String(splitBuffer.getBytes(posBuffer + 1, (int) (lineEnd - posBuffer - 1)));
+			} else {
+				lineEnd = readHeaderLine(startByte + posBuffer) - startByte;
+			}
+
+			fragmentStart = lineEnd + 1;
+			fragmentId = getId(headerLine);
+			fragmentSeqPosition = 1;
+			posBuffer = fragmentStart;
+		}
+	}
+
+	/*
+	 * Fills currValue with the fragment starting at fragmentStart, and moves
+	 * posBuffer to the header following it, if any. Returns false if the
+	 * fragment holds no characters
+	 */
+	private boolean nextFragment() {
+
+		long start = fragmentStart;
+		long end;
+		long bytesToProcess;
+		boolean complete;
+
+		/*
+		 * The fragment ends before the next header line or at the end of the
+		 * file, and we trim all the ending '\n' characters
+		 */
+		long nextHeader = findNextHeader(start);
+
+		end = trimNewlines(start, (nextHeader >= 0) ? nextHeader : sizeBuffer1 + sizeBuffer2);
+
+		if (end < sizeBuffer1 && (nextHeader >= 0 || sizeBuffer2 <= 0)) {
+			/*
+			 * The sequence ends in this split
+			 */
+			bytesToProcess = end - start + 1 - (k - 1);
+			complete = fragmentSeqPosition == 1;
+			posBuffer = (nextHeader >= 0) ? nextHeader : sizeBuffer1;
+		} else {
+			/*
+			 * The sequence continues in the next split, whose first
+			 * characters are used to complete the last k-mers
+			 */
+			bytesToProcess = sizeBuffer1 - start;
+
+			long otherBytes = end + 1 - sizeBuffer1;
+
+			if (otherBytes < (k - 1))
+				bytesToProcess -= (k - 1) - otherBytes;
+
+			complete = false;
+			posBuffer = sizeBuffer1;
+		}
+
+		fragmentStart = -1;
+
+		if (end < start)
+			return false;
+
+		currKey = new Text(fragmentId);
+		currValue = new PartialSequence();
+		currValue.setSegmentedBuffer(splitBuffer);
+		currValue.setHeader(fragmentId);
+		currValue.setStartValue(start);
+		currValue.setEndValue(end);
+		currValue.setBytesToProcess(Math.max(bytesToProcess, 0));
+		currValue.setSeqPosition(fragmentSeqPosition);
+		currValue.setComplete(complete);
+
+		return true;
+	}
+
+	/*
+	 * Returns the position in the split buffer of the first header line
+	 * following position from, or -1 if there is none in the buffer
+	 */
+	private long findNextHeader(long from) {
+
+		long end = sizeBuffer1 + sizeBuffer2;
+		long i = splitBuffer.indexOf((byte) '>', from, end);
+
+		while (i >= 0 && ((i > 0) ? splitBuffer.get(i - 1) : precedingByte) != '\n')
+			i = splitBuffer.indexOf((byte) '>', i + 1, end);
+
+		return i;
+	}
+
+	/*
+	 * Returns the position of the last character preceding end that is not
+	 * a '\n', or start - 1 if there is none
+	 */
+	private long trimNewlines(long start, long end) {
+
+		long i = end - 1;
+
+		while (i >= start && splitBuffer.get(i) == '\n')
+			i--;
+
+		return i;
+	}
+
+	/*
+	 * Reads the file backward from the beginning of the split, for at most
+	 * scanSize bytes, and returns the offset of the last header line
+	 * starting before it, -1 if the beginning of the file is reached with
+	 * no header line, or UNKNOWN if scanSize bytes are read with no header
+	 * line. Chunks grow as the scan proceeds, since the header is usually
+	 * close
+	 */
+	private long findPrecedingHeader(long scanSize) throws IOException {
+
+		byte[] chunk = new byte[HEADER_SCAN_SIZE];
+		int chunkSize = 4096;
+		long end = startByte;
+		long limit = Math.max(startByte - scanSize, 0);
+
+		/*
+		 * True, if the byte following the chunk is a '>', i.e., the
+		 * beginning of a header line if the chunk ends with '\n'
+		 */
+		boolean nextIsHeader = splitBuffer.get(0) == '>';
+
+		while (end > limit) {
+
+			long from = Math.max(end - chunkSize, limit);
+			int length = (int) (end - from);
+
+			inputFile.readFully(from, chunk, 0, length);
+
+			if (nextIsHeader && chunk[length - 1] == '\n')
+				return end;
+
+			int header = -1;
+
+			for (int i = ByteScanner.indexOf(chunk, 1, length, (byte) '>'); i >= 0; i = ByteScanner.indexOf(chunk,
+					i + 1, length, (byte) '>')) {
+				if (chunk[i - 1] == '\n')
+					header = i;
+			}
+
+			if (header >= 0)
+				return from + header;
+
+			nextIsHeader = chunk[0] == '>';
+			end = from;
+			chunkSize = Math.min(chunkSize * 2, HEADER_SCAN_SIZE);
+		}
+
+		if (end > 0)
+			return UNKNOWN;
+
+		return nextIsHeader ? 0 : -1;
+	}
+
+	/*
+	 * Returns the number of characters that are not '\n' between offset from
+	 * of the file and the beginning of the split. If the lines of the split
+	 * have the same length, the number is computed from it, provided that
+	 * the distance from offset from agrees with it. Otherwise, these bytes
+	 * are read and counted
+	 */
+	private long countPrecedingBases(long from) throws IOException {
+
+		long bases = LongReadsRecordReader.getPrecedingBases(splitBuffer, sizeBuffer1, sizeBuffer1 + sizeBuffer2,
+				startByte - from);
+
+		if (bases >= 0)
+			return bases;
+
+		byte[] chunk = new byte[HEADER_SCAN_SIZE];
+		bases = 0;
+
+		for (long pos = from; pos < startByte;) {
+
+			int length = (int) Math.min(chunk.length, startByte - pos);
+
+			inputFile.readFully(pos, chunk, 0, length);
+			bases += length;
+
+			for (int i = ByteScanner.indexOf(chunk, 0, length, (byte) '\n'); i >= 0; i = ByteScanner.indexOf(chunk,
+					i + 1, length, (byte) '\n'))
+				bases--;
+
+			pos += length;
+		}
+
+		return bases;
+	}
+
+	/*
+	 * Reads from the file the header line starting at offset headerStart
+	 * into headerLine, and returns the offset of the '\n' ending it (or of
+	 * the end of the file)
+	 */
+	private long readHeaderLine(long headerStart) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		long pos = headerStart + 1;
+
+		while (true) {
+
+			int read = inputFile.read(pos, chunk, 0, chunk.length);
+
+			if (read <= 0)
+				break;
+
+			int i = ByteScanner.indexOf(chunk, 0, read, (byte) '\n');
+
+			if (i >= 0) {
+				line.write(chunk, 0, i);
+				pos += i;
+				break;
+			}
+
+			line.write(chunk, 0, read);
+			pos += read;
+		}
+
+		headerLine = line.toString();
+		return pos;
+	}
+
+	/*
+	 * The identifier of a sequence is the first word of its header line, as
+	 * in .fai indexes
+	 */
+	private static String getId(String headerLine) {
+
+		String header = headerLine.trim();
+
+		for (int i = 0; i < header.length(); i++) {
+			if (Character.isWhitespace(header.charAt(i)))
+				return header.substring(0, i);
+		}
+
+		return header;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (inputFile != null)
+			inputFile.close();
+
+		if (splitBuffer != null) {
+			splitBuffer.close();
+			splitBuffer = null;
+		}
+	}
+
+	@Override
+	public Text getCurrentKey() throws IOException, InterruptedException {
+		return currKey;
+	}
+
+	@Override
+	public PartialSequence getCurrentValue() throws IOException, InterruptedException {
+		return currValue;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		return (sizeBuffer1 <= 0) ? 1 : Math.min(1.0f, (float) posBuffer / sizeBuffer1);
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * A {@code FileInputFormat} returning the records of another FASTdoop input
+ * format as {@code PackedSequence}s, storing 2 bits per base. The input
+ * format is given by the {@code packed_input_format} configuration parameter
+ * (default: {@code FASTAshortInputFileFormat}), and it plans the splits and
+ * parses the records as usual. Each record is packed straight from the
+ * buffer of its split, without building any string of its bases.
+ *
+ * @see PackedSequence
+ */
+public class PackedInputFileFormat extends FileInputFormat<Text, PackedSequence> {
+
+	@Override
+	public RecordReader<Text, PackedSequence> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+
+		return new PackingRecordReader(getInputFormat(context.getConfiguration()).createRecordReader(split, context));
+	}
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+
+		try {
+			return getInputFormat(job.getConfiguration()).getSplits(job);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static InputFormat<Text, ?> getInputFormat(Configuration conf) {
+		return ReflectionUtils.newInstance(
+				conf.getClass("packed_input_format", FASTAshortInputFileFormat.class, InputFormat.class), conf);
+	}
+
+	/*
+	 * Packs the values returned by the reader of the input format
+	 */
+	private static class PackingRecordReader extends RecordReader<Text, PackedSequence> {
+
+		private final RecordReader<Text, ?> reader;
+
+		private PackedSequence currValue;
+
+		PackingRecordReader(RecordReader<Text, ?> reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+			reader.initialize(split, context);
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+
+			if (!reader.nextKeyValue()) {
+				currValue = null;
+				return false;
+			}
+
+			Object value = reader.getCurrentValue();
+
+			if (value instanceof Record)
+				currValue = PackedSequence.pack((Record) value);
+			else if (value instanceof QRecord)
+				currValue = PackedSequence.pack((QRecord) value);
+			else if (value instanceof PartialSequence)
+				currValue = PackedSequence.pack((PartialSequence) value);
+			else
+				throw new IOException("Cannot pack values of type " + value.getClass().getName());
+
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() throws IOException, InterruptedException {
+			return reader.getCurrentKey();
+		}
+
+		@Override
+		public PackedSequence getCurrentValue() {
+			return currValue;
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException {
+			return reader.getProgress();
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,440 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A sequence stored with 2 bits per base (A = 0, C = 1, G = 2, T = 3), 32
+ * bases per long, the first base being in the most significant bits. Runs
+ * of other characters (e.g., N and the other IUPAC codes) are stored apart,
+ * as a list of runs of the same character, and their bases are encoded as 0
+ * in the packed data. Lowercase bases are stored as uppercase ones, and
+ * newlines are dropped.
+ *
+ * Packed sequences take about one fourth of the memory of the ASCII ones,
+ * both in the heap and once serialized, and they are built directly from
+ * the split buffer of {@code Record}, {@code QRecord} and
+ * {@code PartialSequence} objects, by {@link #pack(Record)},
+ * {@link #pack(QRecord)} and {@link #pack(PartialSequence)}. The quality
+ * line of FASTQ records is kept as it is. The k-mers of a packed sequence
+ * can be iterated using {@link KmerIterator#reset(PackedSequence)}.
+ *
+ * Packed sequences are written as {@code Writable} objects, also when
+ * serialized with Java serialization, so their bases are sent over the
+ * network in packed form as well.
+ *
+ * @see PackedInputFileFormat
+ */
+public class PackedSequence implements Serializable, Writable {
+
+	private static final long serialVersionUID = -2317593402712985418L;
+
+	private static final byte[] SYMBOLS = { 'A', 'C', 'G', 'T' };
+
+	/*
+	 * Codes of the characters: 0-3 for bases, SKIP for the characters ending
+	 * a line and OTHER for the ones stored in runs
+	 */
+	private static final byte SKIP = -1;
+
+	private static final byte OTHER = -2;
+
+	private static final byte[] CODES = new byte[256];
+
+	static {
+		Arrays.fill(CODES, OTHER);
+		CODES['A'] = CODES['a'] = 0;
+		CODES['C'] = CODES['c'] = 1;
+		CODES['G'] = CODES['g'] = 2;
+		CODES['T'] = CODES['t'] = 3;
+		CODES['\n'] = CODES['\r'] = SKIP;
+	}
+
+	private String header;
+
+	private long length;
+
+	private long[] packed;
+
+	/*
+	 * Runs of characters other than A, C, G and T: position of the first
+	 * character, number of characters and character of each run
+	 */
+	private long[] runStarts;
+
+	private long[] runLengths;
+
+	private byte[] runSymbols;
+
+	private int runCount;
+
+	private byte[] quality;
+
+	private long seqPosition = -1;
+
+	private boolean isComplete = true;
+
+	private long basesToProcess;
+
+	/**
+	 * Packs the sequence of a FASTA record
+	 */
+	public static PackedSequence pack(Record record) {
+
+		PackedSequence sequence = new PackedSequence();
+		sequence.header = record.getKey();
+		sequence.seqPosition = 1;
+		sequence.packBytes(SegmentedBuffer.wrap(record.getByteBuffer()), record.getStartValue(),
+				record.getEndValue(), Long.MAX_VALUE);
+
+		return sequence;
+	}
+
+	/**
+	 * Packs the sequence of a FASTQ record, together with its quality line
+	 */
+	public static PackedSequence pack(QRecord record) {
+
+		PackedSequence sequence = new PackedSequence();
+		sequence.header = record.getKey();
+		sequence.seqPosition = 1;
+		ByteBuffer buffer = record.getByteBuffer();
+		sequence.packBytes(SegmentedBuffer.wrap(buffer), record.getStartValue(), record.getEndValue(), Long.MAX_VALUE);
+		sequence.quality = Utils.getBytes(buffer, record.getStartQuality(),
+				record.getEndQuality() - record.getStartQuality() + 1);
+
+		return sequence;
+	}
+
+	/**
+	 * Packs the bases of a fragment of a long sequence, from startValue to
+	 * endValue. The bases found in the first bytesToProcess bytes are the
+	 * ones where k-mers can start, as returned by
+	 * {@link #getBasesToProcess()}
+	 */
+	public static PackedSequence pack(PartialSequence fragment) {
+
+		PackedSequence sequence = new PackedSequence();
+		sequence.header = fragment.getKey();
+		sequence.seqPosition = fragment.getSeqPosition();
+		sequence.isComplete = fragment.isComplete();
+		sequence.packBytes(fragment.getSegmentedBuffer(), fragment.getStartValueLong(), fragment.getEndValueLong(),
+				fragment.getStartValueLong() + Math.max(fragment.getBytesToProcessLong(), 0));
+
+		return sequence;
+	}
+
+	/*
+	 * Packs the bases of buffer from offset start to end (both inclusive),
+	 * counting the ones before offset limit
+	 */
+	private void packBytes(SegmentedBuffer buffer, long start, long end, long limit) {
+
+		long capacity = Math.max(end - start + 1, 0);
+		packed = new long[Math.toIntExact((capacity + 31) >>> 5)];
+		runStarts = new long[4];
+		runLengths = new long[4];
+		runSymbols = new byte[4];
+		basesToProcess = -1;
+
+		long n = 0;
+		long word = 0;
+
+		for (long offset = start; offset <= end; offset++) {
+
+			if (offset == limit)
+				basesToProcess = n;
+
+			byte symbol = buffer.get(offset);
+			int code = CODES[symbol & 0xFF];
+
+			if (code == SKIP)
+				continue;
+
+			if (code == OTHER) {
+				addToRun(n, symbol);
+				code = 0;
+			}
+
+			word = (word << 2) | code;
+
+			if ((++n & 31) == 0) {
+				packed[(int) ((n - 1) >>> 5)] = word;
+				word = 0;
+			}
+		}
+
+		if ((n & 31) != 0)
+			packed[(int) (n >>> 5)] = word << (2 * (32 - (n & 31)));
+
+		length = n;
+
+		if (basesToProcess < 0)
+			basesToProcess = n;
+
+		int words = (int) ((n + 31) >>> 5);
+
+		if (words < packed.length)
+			packed = Arrays.copyOf(packed, words);
+
+		runStarts = Arrays.copyOf(runStarts, runCount);
+		runLengths = Arrays.copyOf(runLengths, runCount);
+		runSymbols = Arrays.copyOf(runSymbols, runCount);
+	}
+
+	private void addToRun(long position, byte symbol) {
+
+		if (symbol >= 'a' && symbol <= 'z')
+			symbol -= 'a' - 'A';
+
+		if (runCount > 0 && runSymbols[runCount - 1] == symbol
+				&& runStarts[runCount - 1] + runLengths[runCount - 1] == position) {
+			runLengths[runCount - 1]++;
+			return;
+		}
+
+		if (runCount == runStarts.length) {
+			runStarts = Arrays.copyOf(runStarts, runCount * 2);
+			runLengths = Arrays.copyOf(runLengths, runCount * 2);
+			runSymbols = Arrays.copyOf(runSymbols, runCount * 2);
+		}
+
+		runStarts[runCount] = position;
+		runLengths[runCount] = 1;
+		runSymbols[runCount++] = symbol;
+	}
+
+	public String getKey() {
+		return header;
+	}
+
+	/**
+	 * The number of bases of this sequence
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * The 2-bit code of the base at position index (starting from 0), or 0
+	 * if the base is stored in a run
+	 */
+	public int getCode(long index) {
+		return (int) (packed[(int) (index >>> 5)] >>> (62 - 2 * (index & 31))) & 3;
+	}
+
+	/**
+	 * The character at position index (starting from 0)
+	 */
+	public byte getBase(long index) {
+
+		int run = findRun(index);
+
+		if (run >= 0 && index < runStarts[run] + runLengths[run])
+			return runSymbols[run];
+
+		return SYMBOLS[getCode(index)];
+	}
+
+	/**
+	 * Returns the characters of this sequence
+	 */
+	public byte[] getBases() {
+
+		byte[] bases = new byte[Math.toIntExact(length)];
+
+		for (int i = 0; i < bases.length; i++)
+			bases[i] = SYMBOLS[getCode(i)];
+
+		for (int r = 0; r < runCount; r++)
+			Arrays.fill(bases, (int) runStarts[r], (int) (runStarts[r] + runLengths[r]), runSymbols[r]);
+
+		return bases;
+	}
+
+	public String getValue() {
+		return new String(getBases());
+	}
+
+	/**
+	 * The quality line of a FASTQ record, or null
+	 */
+	public String getQuality() {
+		return (quality != null) ? new String(quality) : null;
+	}
+
+	/**
+	 * The packed bases, 32 per long
+	 */
+	public long[] getPacked() {
+		return packed;
+	}
+
+	/**
+	 * The number of runs of characters other than A, C, G and T
+	 */
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * The position (starting from 0) of the first character of run r
+	 */
+	public long getRunStart(int r) {
+		return runStarts[r];
+	}
+
+	public long getRunLength(int r) {
+		return runLengths[r];
+	}
+
+	public byte getRunSymbol(int r) {
+		return runSymbols[r];
+	}
+
+	/**
+	 * The number of bases, from the first one, where k-mers of this sequence
+	 * can start. The other bases are only used to complete the k-mers
+	 * starting in the input split of this sequence
+	 */
+	public long getBasesToProcess() {
+		return basesToProcess;
+	}
+
+	public long getSeqPosition() {
+		return seqPosition;
+	}
+
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	/*
+	 * Returns the index of the last run starting at or before index, or -1
+	 */
+	private int findRun(long index) {
+
+		int i = Arrays.binarySearch(runStarts, 0, runCount, index);
+
+		return (i >= 0) ? i : -i - 2;
+	}
+
+	/**
+	 * Writes this sequence with its bases in packed form. Runs are written
+	 * as the distance from the end of the previous run, followed by their
+	 * length and character
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		byte[] headerBytes = (header != null) ? header.getBytes(StandardCharsets.UTF_8) : null;
+		WritableUtils.writeVInt(out, (headerBytes != null) ? headerBytes.length : -1);
+
+		if (headerBytes != null)
+			out.write(headerBytes);
+
+		WritableUtils.writeVLong(out, seqPosition);
+		out.writeBoolean(isComplete);
+		WritableUtils.writeVLong(out, basesToProcess);
+		WritableUtils.writeVLong(out, length);
+
+		for (int i = 0, words = (int) ((length + 31) >>> 5); i < words; i++)
+			out.writeLong(packed[i]);
+
+		WritableUtils.writeVInt(out, runCount);
+
+		for (int r = 0; r < runCount; r++) {
+			WritableUtils.writeVLong(out, runStarts[r] - ((r > 0) ? runStarts[r - 1] + runLengths[r - 1] : 0));
+			WritableUtils.writeVLong(out, runLengths[r]);
+			out.writeByte(runSymbols[r]);
+		}
+
+		WritableUtils.writeVInt(out, (quality != null) ? quality.length : -1);
+
+		if (quality != null)
+			out.write(quality);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int headerLength = WritableUtils.readVInt(in);
+
+		if (headerLength >= 0) {
+			byte[] bytes = new byte[headerLength];
+			in.readFully(bytes);
+			header = new String(bytes, StandardCharsets.UTF_8);
+		} else {
+			header = null;
+		}
+
+		seqPosition = WritableUtils.readVLong(in);
+		isComplete = in.readBoolean();
+		basesToProcess = WritableUtils.readVLong(in);
+		length = WritableUtils.readVLong(in);
+		packed = new long[Math.toIntExact((length + 31) >>> 5)];
+
+		for (int i = 0; i < packed.length; i++)
+			packed[i] = in.readLong();
+
+		runCount = WritableUtils.readVInt(in);
+		runStarts = new long[runCount];
+		runLengths = new long[runCount];
+		runSymbols = new byte[runCount];
+
+		for (int r = 0; r < runCount; r++) {
+			runStarts[r] = WritableUtils.readVLong(in) + ((r > 0) ? runStarts[r - 1] + runLengths[r - 1] : 0);
+			runLengths[r] = WritableUtils.readVLong(in);
+			runSymbols[r] = in.readByte();
+		}
+
+		int qualityLength = WritableUtils.readVInt(in);
+
+		if (qualityLength >= 0) {
+			quality = new byte[qualityLength];
+			in.readFully(quality);
+		} else {
+			quality = null;
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		write(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException {
+		readFields(in);
+	}
+
+	@Override
+	public String toString() {
+		return ((quality != null) ? "@" : ">") + header + "\n" + getValue()
+				+ ((quality != null) ? "\n+\n" + getQuality() : "");
+	}
+}
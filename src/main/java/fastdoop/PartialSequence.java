@@ -18,40 +18,135 @@
 
 package fastdoop;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * This class is used to store fragments of a long input FASTA 
  * sequence as an array of bytes.
  * 
+ * When written as a {@code Writable}, or serialized, a fragment stores only
+ * its own bytes, rather than the whole buffer of the input split it has been
+ * read from. Serialized fragments can be sorted by
+ * {@link PartialSequence.Comparator} without being deserialized.
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0  
  */
-public class PartialSequence implements Serializable { 
+public class PartialSequence implements Serializable, WritableComparable<PartialSequence> { 
 	 
 	private static final long serialVersionUID = 6820343484812253133L; 
 
 	private String header;
 	private byte[] buffer;
-	private int startValue; 
-	private int endValue; 
-	private int bytesToProcess;
+	private long startValue; 
+	private long endValue; 
+	private long bytesToProcess;
 	private long seqPosition = -1;
 	private boolean isComplete = false;
 
+	/*
+	 * Number of bases and of bytes of each line but the last one, as found
+	 * in a FAI index, or 0 if not known
+	 */
+	private int bpsPerLine;
+	private int bytesPerLine;
+
+	/*
+	 * Used instead of buffer when the fragment is read from an input split
+	 * that is not stored in the heap (e.g., a memory-mapped one)
+	 */
+	private transient ByteBuffer byteBuffer;
+
+	/*
+	 * Used instead of buffer when the fragment is read from an input split
+	 * stored in several segments (e.g., one larger than 2 GB)
+	 */
+	private transient SegmentedBuffer segmentedBuffer;
+
 	public String getKey(){
 		return header;
 	}
 	
 	public String getValue(){
-		return new String(buffer, startValue, (endValue-startValue+1));
+		return getString(startValue, Math.toIntExact(endValue-startValue+1));
 	}
 	
 	public String getValue2(){
-		return new String(buffer, startValue, bytesToProcess);
+		return getString(startValue, Math.toIntExact(bytesToProcess));
+	}
+
+	private String getString(long start, int length) {
+		if (buffer != null)
+			return new String(buffer, Math.toIntExact(start), length);
+
+		return new String(getBytes(start, length));
+	}
+
+	/*
+	 * Returns a copy of length bytes of this fragment, starting at offset
+	 * start
+	 */
+	private byte[] getBytes(long start, int length) {
+		if (segmentedBuffer != null)
+			return segmentedBuffer.getBytes(start, Math.max(length, 0));
+
+		if (byteBuffer != null)
+			return Utils.getBytes(byteBuffer, Math.toIntExact(start), length);
+
+		return Arrays.copyOfRange(buffer, Math.toIntExact(start), Math.toIntExact(start) + Math.max(length, 0));
+	}
+
+	/**
+	 * Returns the characters of this fragment, from startValue to endValue,
+	 * without the newline characters separating the lines of a multi-line
+	 * FASTA sequence
+	 */
+	public byte[] getBases() {
+		byte[] bases = new byte[Math.toIntExact(endValue - startValue + 1)];
+		int length;
+
+		if (buffer == null) {
+			byte[] value = getBytes(startValue, bases.length);
+			length = ByteScanner.copyWithoutNewlines(value, 0, value.length, bases, 0);
+		} else {
+			length = ByteScanner.copyWithoutNewlines(buffer, (int) startValue, (int) endValue + 1, bases, 0);
+		}
+
+		return (length == bases.length) ? bases : Arrays.copyOf(bases, length);
 	}
 	
+	/**
+	 * Returns a view of the bases of this fragment, from startValue to
+	 * endValue, skipping newlines without copying them
+	 *
+	 * @see SequenceView
+	 */
+	public SequenceView getSequenceView() {
+		return new SequenceView(this);
+	}
+
+	/**
+	 * Returns an iterator over the 2-bit encoded k-mers of this fragment.
+	 * The iterator can be reused for other fragments, without allocating a
+	 * new one, by calling {@link KmerIterator#reset(PartialSequence)}
+	 */
+	public KmerIterator getKmers(int k) {
+		return new KmerIterator(k).reset(this);
+	}
+
 	public String toString2() {
 		
 		if(startValue > 0)
@@ -78,9 +173,73 @@ public class PartialSequence implements Serializable {
 
 	public void setBuffer(byte[] buffer) {
 		this.buffer = buffer;
+		this.byteBuffer = null;
+		this.segmentedBuffer = null;
+	}
+
+	/**
+	 * Returns the buffer storing this fragment, wrapping the array returned
+	 * by {@link #getBuffer()} if the fragment is stored in the heap. Offsets
+	 * are absolute positions in the returned buffer. Returns null if the
+	 * fragment is stored in several segments
+	 * 
+	 * @see #getSegmentedBuffer()
+	 */
+	public ByteBuffer getByteBuffer() {
+		if (segmentedBuffer != null)
+			return null;
+
+		return (byteBuffer != null) ? byteBuffer : ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Sets the buffer storing this fragment. If byteBuffer is not backed by
+	 * an array starting at its first byte, {@link #getBuffer()} returns null
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer) {
+		if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0) {
+			setBuffer(byteBuffer.array());
+		} else {
+			this.buffer = null;
+			this.byteBuffer = byteBuffer;
+			this.segmentedBuffer = null;
+		}
+	}
+
+	/**
+	 * Returns the buffer storing this fragment, addressed by the same long
+	 * offsets as {@link #getStartValueLong()} and {@link #getEndValueLong()}.
+	 * It wraps the buffer returned by {@link #getByteBuffer()} if the
+	 * fragment is stored in a single segment
+	 */
+	public SegmentedBuffer getSegmentedBuffer() {
+		return (segmentedBuffer != null) ? segmentedBuffer : SegmentedBuffer.wrap(getByteBuffer());
+	}
+
+	/**
+	 * Sets the buffer storing this fragment. If segmentedBuffer is made of
+	 * several segments, both {@link #getBuffer()} and
+	 * {@link #getByteBuffer()} return null
+	 */
+	public void setSegmentedBuffer(SegmentedBuffer segmentedBuffer) {
+		if (segmentedBuffer.getSegmentCount() == 1) {
+			setByteBuffer(segmentedBuffer.getSegment(0));
+		} else {
+			this.buffer = null;
+			this.byteBuffer = null;
+			this.segmentedBuffer = segmentedBuffer;
+		}
 	}
 
+	/**
+	 * @throws ArithmeticException if the value does not fit in an int, use
+	 * {@link #getBytesToProcessLong()} with input splits larger than 2 GB
+	 */
 	public int getBytesToProcess() {
+		return Math.toIntExact(bytesToProcess);
+	}
+
+	public long getBytesToProcessLong() {
 		return bytesToProcess;
 	}
 
@@ -88,6 +247,10 @@ public class PartialSequence implements Serializable {
 		this.bytesToProcess = bytesToProcess;
 	}
 
+	public void setBytesToProcess(long bytesToProcess) {
+		this.bytesToProcess = bytesToProcess;
+	}
+
 	public String getHeader() {
 		return header;
 	}
@@ -96,7 +259,15 @@ public class PartialSequence implements Serializable {
 		this.header = header;
 	}
 
+	/**
+	 * @throws ArithmeticException if the value does not fit in an int, use
+	 * {@link #getStartValueLong()} with input splits larger than 2 GB
+	 */
 	public int getStartValue() {
+		return Math.toIntExact(startValue);
+	}
+
+	public long getStartValueLong() {
 		return startValue;
 	}
 
@@ -104,7 +275,19 @@ public class PartialSequence implements Serializable {
 		this.startValue = startValue;
 	}
 
+	public void setStartValue(long startValue) {
+		this.startValue = startValue;
+	}
+
+	/**
+	 * @throws ArithmeticException if the value does not fit in an int, use
+	 * {@link #getEndValueLong()} with input splits larger than 2 GB
+	 */
 	public int getEndValue() {
+		return Math.toIntExact(endValue);
+	}
+
+	public long getEndValueLong() {
 		return endValue;
 	}
 
@@ -112,6 +295,10 @@ public class PartialSequence implements Serializable {
 		this.endValue = endValue;
 	}
 
+	public void setEndValue(long endValue) {
+		this.endValue = endValue;
+	}
+
 	/**
 	 * The 1-based position in the full sequence where this fragment begins, or -1 if the position is
 	 * not known.
@@ -128,4 +315,221 @@ public class PartialSequence implements Serializable {
 	public boolean isComplete() { return isComplete; }
 
 	public void setComplete(boolean complete) { this.isComplete = complete; }
+
+	/**
+	 * The number of bases in each line of the sequence but the last one, or
+	 * 0 if not known (i.e., if the fragment has not been read using a FAI
+	 * index)
+	 */
+	public int getBpsPerLine() { return bpsPerLine; }
+
+	/**
+	 * The number of bytes in each line of the sequence but the last one,
+	 * line terminator included, or 0 if not known
+	 */
+	public int getBytesPerLine() { return bytesPerLine; }
+
+	public void setLineGeometry(int bpsPerLine, int bytesPerLine) {
+		this.bpsPerLine = bpsPerLine;
+		this.bytesPerLine = bytesPerLine;
+	}
+
+	/**
+	 * Writes this fragment, storing only the bytes between startValue and
+	 * endValue (or the ones to process, if more), rather than the whole
+	 * buffer of the input split. The byte preceding startValue, if any, is
+	 * kept so that {@link #toString2()} still prints the header
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		byte[] headerBytes = (header != null) ? header.getBytes(StandardCharsets.UTF_8) : null;
+		WritableUtils.writeVInt(out, (headerBytes != null) ? headerBytes.length : -1);
+
+		if (headerBytes != null)
+			out.write(headerBytes);
+
+		out.writeLong(seqPosition);
+		out.writeBoolean(isComplete);
+		WritableUtils.writeVInt(out, bpsPerLine);
+		WritableUtils.writeVInt(out, bytesPerLine);
+
+		long from = startValue - Math.min(startValue, 1);
+		int length = Math.toIntExact((startValue - from) + Math.max(endValue - startValue + 1, bytesToProcess));
+
+		WritableUtils.writeVLong(out, startValue - from);
+		WritableUtils.writeVLong(out, endValue - from);
+		WritableUtils.writeVLong(out, bytesToProcess);
+		WritableUtils.writeVInt(out, length);
+		out.write(getBytes(from, length));
+	}
+
+	/**
+	 * Reads a fragment written by {@link #write(DataOutput)} in a heap
+	 * buffer holding only its bytes, reusing the current buffer if large
+	 * enough
+	 */
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int headerLength = WritableUtils.readVInt(in);
+
+		if (headerLength >= 0) {
+			byte[] bytes = new byte[headerLength];
+			in.readFully(bytes);
+			header = new String(bytes, StandardCharsets.UTF_8);
+		} else {
+			header = null;
+		}
+
+		seqPosition = in.readLong();
+		isComplete = in.readBoolean();
+		bpsPerLine = WritableUtils.readVInt(in);
+		bytesPerLine = WritableUtils.readVInt(in);
+		startValue = WritableUtils.readVLong(in);
+		endValue = WritableUtils.readVLong(in);
+		bytesToProcess = WritableUtils.readVLong(in);
+
+		int length = WritableUtils.readVInt(in);
+
+		if (buffer == null || buffer.length < length)
+			setBuffer(new byte[length]);
+		else
+			setBuffer(buffer);
+
+		in.readFully(buffer, 0, length);
+	}
+
+	/*
+	 * Returns the bytes of this fragment written by write(DataOutput),
+	 * without the byte preceding startValue
+	 */
+	private byte[] getSlice() {
+		return getBytes(startValue, Math.toIntExact(Math.max(endValue - startValue + 1, bytesToProcess)));
+	}
+
+	/**
+	 * Fragments are sorted by header, then by their position in the
+	 * sequence, then by their bytes, so that fragments whose position is not
+	 * known (i.e., -1) are told apart
+	 */
+	@Override
+	public int compareTo(PartialSequence other) {
+		byte[] h1 = (header != null) ? header.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		byte[] h2 = (other.header != null) ? other.header.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		int c = WritableComparator.compareBytes(h1, 0, h1.length, h2, 0, h2.length);
+
+		if (c == 0)
+			c = Long.compare(seqPosition, other.seqPosition);
+
+		if (c != 0)
+			return c;
+
+		byte[] s1 = getSlice();
+		byte[] s2 = other.getSlice();
+
+		return WritableComparator.compareBytes(s1, 0, s1.length, s2, 0, s2.length);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof PartialSequence) && compareTo((PartialSequence) other) == 0;
+	}
+
+	/**
+	 * The bytes of the fragment are hashed only if its position is not
+	 * known, so that such fragments are not all given the same hash code
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 31 * ((header != null) ? header.hashCode() : 0) + Long.hashCode(seqPosition);
+
+		if (seqPosition == -1) {
+			byte[] slice = getSlice();
+			hash = 31 * hash + WritableComparator.hashBytes(slice, slice.length);
+		}
+
+		return hash;
+	}
+
+	/*
+	 * Only the bytes of the fragment are serialized, rather than the whole
+	 * buffer storing it
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		write(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException {
+		readFields(in);
+	}
+
+	/**
+	 * Compares serialized fragments without deserializing them
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(PartialSequence.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+				int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+				int h1 = Math.max(readVInt(b1, s1), 0);
+				int h2 = Math.max(readVInt(b2, s2), 0);
+				int c = compareBytes(b1, s1 + n1, h1, b2, s2 + n2, h2);
+
+				if (c != 0)
+					return c;
+
+				int p1 = s1 + n1 + h1;
+				int p2 = s2 + n2 + h2;
+
+				c = Long.compare(readLong(b1, p1), readLong(b2, p2));
+
+				return (c != 0) ? c : compareSlices(b1, p1 + 9, b2, p2 + 9);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		/*
+		 * Compares the bytes of two serialized fragments, starting at the
+		 * line geometry following their position and flag, the same way as
+		 * compareTo(PartialSequence)
+		 */
+		private static int compareSlices(byte[] b1, int p1, byte[] b2, int p2) throws IOException {
+			int[] slice1 = findSlice(b1, p1);
+			int[] slice2 = findSlice(b2, p2);
+
+			return compareBytes(b1, slice1[0], slice1[1], b2, slice2[0], slice2[1]);
+		}
+
+		/*
+		 * Returns the offset and the length of the bytes of a serialized
+		 * fragment following startValue, skipping its line geometry, its
+		 * offsets and the byte preceding startValue
+		 */
+		private static int[] findSlice(byte[] b, int p) throws IOException {
+			p += WritableUtils.decodeVIntSize(b[p]);
+			p += WritableUtils.decodeVIntSize(b[p]);
+
+			int skip = (int) readVLong(b, p);
+
+			p += WritableUtils.decodeVIntSize(b[p]);
+			p += WritableUtils.decodeVIntSize(b[p]);
+			p += WritableUtils.decodeVIntSize(b[p]);
+
+			int length = readVInt(b, p);
+
+			p += WritableUtils.decodeVIntSize(b[p]);
+
+			return new int[] { p + skip, length - skip };
+		}
+	}
+
+	static {
+		WritableComparator.define(PartialSequence.class, new Comparator());
+	}
 }
@@ -18,17 +18,33 @@
 
 package fastdoop;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * Utility class used to represent as a record a sequence existing 
  * in a FASTQ file.
  * 
+ * When written as a {@code Writable}, or serialized, a record stores only
+ * its key, value, second header and quality line, rather than the whole
+ * buffer of the input split it has been read from. Serialized records can
+ * be sorted by {@link QRecord.Comparator} without being deserialized.
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
  */
-public class QRecord implements Serializable { 
+public class QRecord implements Serializable, WritableComparable<QRecord> { 
 	 
 	private static final long serialVersionUID = -7555239567456193078L; 
 
@@ -38,20 +54,33 @@ public class QRecord implements Serializable {
 	private int startKey2, endKey2;
 	private int startQuality, endQuality;
 
+	/*
+	 * Used instead of buffer when the record is read from an input split
+	 * that is not stored in the heap (e.g., a memory-mapped one)
+	 */
+	private transient ByteBuffer byteBuffer;
+
 	public String getKey() {
-		return new String(buffer, startKey, (endKey - startKey + 1));
+		return getString(startKey, endKey);
 	}
 
 	public String getValue() {
-		return new String(buffer, startValue, (endValue - startValue + 1));
+		return getString(startValue, endValue);
 	}
 
 	public String getKey2() {
-		return new String(buffer, startKey2, (endKey2 - startKey2 + 1));
+		return getString(startKey2, endKey2);
 	}
 
 	public String getQuality() {
-		return new String(buffer, startQuality, (endQuality - startQuality + 1));
+		return getString(startQuality, endQuality);
+	}
+
+	private String getString(int start, int end) {
+		if (byteBuffer != null)
+			return new String(Utils.getBytes(byteBuffer, start, end - start + 1));
+
+		return new String(buffer, start, (end - start + 1));
 	}
 
 	@Override
@@ -75,6 +104,29 @@ public class QRecord implements Serializable {
 
 	public void setBuffer(byte[] buffer) {
 		this.buffer = buffer;
+		this.byteBuffer = null;
+	}
+
+	/**
+	 * Returns the buffer storing this record, wrapping the array returned by
+	 * {@link #getBuffer()} if the record is stored in the heap. Offsets are
+	 * absolute positions in the returned buffer
+	 */
+	public ByteBuffer getByteBuffer() {
+		return (byteBuffer != null) ? byteBuffer : ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Sets the buffer storing this record. If byteBuffer is not backed by an
+	 * array starting at its first byte, {@link #getBuffer()} returns null
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer) {
+		if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0) {
+			setBuffer(byteBuffer.array());
+		} else {
+			this.buffer = null;
+			this.byteBuffer = byteBuffer;
+		}
 	}
 
 	public int getStartKey() {
@@ -133,4 +185,130 @@ public class QRecord implements Serializable {
 		this.endQuality = endQuality;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Writes the key, the value, the second header and the quality line of
+	 * this record, without the rest of the buffer storing it
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Utils.writeSlice(out, buffer, byteBuffer, startKey, endKey - startKey + 1);
+		Utils.writeSlice(out, buffer, byteBuffer, startValue, endValue - startValue + 1);
+		Utils.writeSlice(out, buffer, byteBuffer, startKey2, endKey2 - startKey2 + 1);
+		Utils.writeSlice(out, buffer, byteBuffer, startQuality, endQuality - startQuality + 1);
+	}
+
+	/**
+	 * Reads a record written by {@link #write(DataOutput)} in a buffer
+	 * holding only its fields, reusing the current buffer if large enough
+	 */
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		if (buffer == null)
+			setBuffer(new byte[0]);
+
+		int[] bounds = new int[8];
+		int length = 0;
+
+		for (int i = 0; i < 4; i++) {
+			int n = WritableUtils.readVInt(in);
+
+			if (buffer.length < length + n)
+				buffer = Arrays.copyOf(buffer, Math.max(length + n, 2 * buffer.length));
+
+			in.readFully(buffer, length, n);
+			bounds[2 * i] = length;
+			bounds[2 * i + 1] = length + n - 1;
+			length += n;
+		}
+
+		startKey = bounds[0];
+		endKey = bounds[1];
+		startValue = bounds[2];
+		endValue = bounds[3];
+		startKey2 = bounds[4];
+		endKey2 = bounds[5];
+		startQuality = bounds[6];
+		endQuality = bounds[7];
+	}
+
+	/**
+	 * Records are sorted by key, then by value, second header and quality
+	 */
+	@Override
+	public int compareTo(QRecord other) {
+		int c = Utils.compareSlices(buffer, byteBuffer, startKey, endKey - startKey + 1, other.buffer,
+				other.byteBuffer, other.startKey, other.endKey - other.startKey + 1);
+
+		if (c == 0)
+			c = Utils.compareSlices(buffer, byteBuffer, startValue, endValue - startValue + 1, other.buffer,
+					other.byteBuffer, other.startValue, other.endValue - other.startValue + 1);
+
+		if (c == 0)
+			c = Utils.compareSlices(buffer, byteBuffer, startKey2, endKey2 - startKey2 + 1, other.buffer,
+					other.byteBuffer, other.startKey2, other.endKey2 - other.startKey2 + 1);
+
+		if (c == 0)
+			c = Utils.compareSlices(buffer, byteBuffer, startQuality, endQuality - startQuality + 1, other.buffer,
+					other.byteBuffer, other.startQuality, other.endQuality - other.startQuality + 1);
+
+		return c;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof QRecord) && compareTo((QRecord) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		ByteBuffer bytes = getByteBuffer();
+
+		return 31 * Arrays.hashCode(Utils.getBytes(bytes, startKey, endKey - startKey + 1))
+				+ Arrays.hashCode(Utils.getBytes(bytes, startValue, endValue - startValue + 1));
+	}
+
+	/*
+	 * Only the fields of the record are serialized, rather than the whole
+	 * buffer storing it
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		write(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException {
+		readFields(in);
+	}
+
+	/**
+	 * Compares serialized records without deserializing them
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(QRecord.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				for (int i = 0; i < 4; i++) {
+					int c = Utils.compareSerializedSlices(b1, s1, b2, s2);
+
+					if (c != 0)
+						return c;
+
+					s1 += Utils.getSerializedSliceLength(b1, s1);
+					s2 += Utils.getSerializedSliceLength(b2, s2);
+				}
+
+				return 0;
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	static {
+		WritableComparator.define(QRecord.class, new Comparator());
+	}
+}
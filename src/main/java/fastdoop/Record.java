@@ -18,18 +18,34 @@
 
 package fastdoop;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * Utility class used to represent as a record a sequence existing 
  * in a FASTA file.
  * 
+ * When written as a {@code Writable}, or serialized, a record stores only
+ * its key and its value, rather than the whole buffer of the input split it
+ * has been read from. Serialized records can be sorted by
+ * {@link Record.Comparator} without being deserialized.
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
  */
 
-public class Record implements Serializable { 
+public class Record implements Serializable, WritableComparable<Record> { 
 	 
 	private static final long serialVersionUID = 8015377043208271607L; 
 	 
@@ -37,12 +53,25 @@ public class Record implements Serializable {
 	private int startKey, endKey;
 	private int startValue, endValue;
 
+	/*
+	 * Used instead of buffer when the record is read from an input split
+	 * that is not stored in the heap (e.g., a memory-mapped one)
+	 */
+	private transient ByteBuffer byteBuffer;
+
 	public String getKey() {
-		return new String(buffer, startKey, (endKey - startKey + 1));
+		return getString(startKey, endKey);
 	}
 
 	public String getValue() {
-		return new String(buffer, startValue, (endValue - startValue + 1));
+		return getString(startValue, endValue);
+	}
+
+	private String getString(int start, int end) {
+		if (byteBuffer != null)
+			return new String(Utils.getBytes(byteBuffer, start, end - start + 1));
+
+		return new String(buffer, start, (end - start + 1));
 	}
 
 	@Override
@@ -56,6 +85,29 @@ public class Record implements Serializable {
 
 	public void setBuffer(byte[] buffer) {
 		this.buffer = buffer;
+		this.byteBuffer = null;
+	}
+
+	/**
+	 * Returns the buffer storing this record, wrapping the array returned by
+	 * {@link #getBuffer()} if the record is stored in the heap. Offsets are
+	 * absolute positions in the returned buffer
+	 */
+	public ByteBuffer getByteBuffer() {
+		return (byteBuffer != null) ? byteBuffer : ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Sets the buffer storing this record. If byteBuffer is not backed by an
+	 * array starting at its first byte, {@link #getBuffer()} returns null
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer) {
+		if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0) {
+			setBuffer(byteBuffer.array());
+		} else {
+			this.buffer = null;
+			this.byteBuffer = byteBuffer;
+		}
 	}
 
 	public int getStartKey() {
@@ -90,4 +142,109 @@ public class Record implements Serializable {
 		this.endValue = endValue;
 	}
 
+	/**
+	 * Writes the key and the value of this record, without the rest of the
+	 * buffer storing it
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Utils.writeSlice(out, buffer, byteBuffer, startKey, endKey - startKey + 1);
+		Utils.writeSlice(out, buffer, byteBuffer, startValue, endValue - startValue + 1);
+	}
+
+	/**
+	 * Reads a record written by {@link #write(DataOutput)} in a buffer
+	 * holding only its key and value, reusing the current buffer if large
+	 * enough
+	 */
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int keyLength = WritableUtils.readVInt(in);
+
+		if (buffer == null || buffer.length < keyLength)
+			setBuffer(new byte[keyLength]);
+
+		in.readFully(buffer, 0, keyLength);
+
+		int valueLength = WritableUtils.readVInt(in);
+
+		if (buffer.length < keyLength + valueLength)
+			buffer = Arrays.copyOf(buffer, keyLength + valueLength);
+
+		in.readFully(buffer, keyLength, valueLength);
+
+		startKey = 0;
+		endKey = keyLength - 1;
+		startValue = keyLength;
+		endValue = keyLength + valueLength - 1;
+	}
+
+	/**
+	 * Records are sorted by key, then by value
+	 */
+	@Override
+	public int compareTo(Record other) {
+		int c = Utils.compareSlices(buffer, byteBuffer, startKey, endKey - startKey + 1, other.buffer,
+				other.byteBuffer, other.startKey, other.endKey - other.startKey + 1);
+
+		if (c != 0)
+			return c;
+
+		return Utils.compareSlices(buffer, byteBuffer, startValue, endValue - startValue + 1, other.buffer,
+				other.byteBuffer, other.startValue, other.endValue - other.startValue + 1);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof Record) && compareTo((Record) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		ByteBuffer bytes = getByteBuffer();
+
+		return 31 * Arrays.hashCode(Utils.getBytes(bytes, startKey, endKey - startKey + 1))
+				+ Arrays.hashCode(Utils.getBytes(bytes, startValue, endValue - startValue + 1));
+	}
+
+	/*
+	 * Only the key and the value are serialized, rather than the whole
+	 * buffer storing the record
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		write(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException {
+		readFields(in);
+	}
+
+	/**
+	 * Compares serialized records without deserializing them
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(Record.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int c = Utils.compareSerializedSlices(b1, s1, b2, s2);
+
+				if (c != 0)
+					return c;
+
+				return Utils.compareSerializedSlices(b1, s1 + Utils.getSerializedSliceLength(b1, s1), b2,
+						s2 + Utils.getSerializedSliceLength(b2, s2));
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	static {
+		WritableComparator.define(Record.class, new Comparator());
+	}
 }
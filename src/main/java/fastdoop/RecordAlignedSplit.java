@@ -0,0 +1,342 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A {@code FileSplit} that also stores the length of the file it belongs to
+ * and the offset of the first record starting in the split, as found when
+ * planning the splits of the job.
+ *
+ * Record readers receiving a split of this type do not need to query the
+ * file system for the length of the file, nor to look for the beginning of
+ * the first record of the split.
+ *
+ * Record-aligned splits are created by {@code FASTAshortInputFileFormat} and
+ * {@code FASTQInputFileFormat} when the {@code record_aligned_splits}
+ * configuration parameter is set to true.
+ *
+ * @see FileSplit
+ */
+public class RecordAlignedSplit extends FileSplit {
+
+	/*
+	 * Offset used when no record starts in the split
+	 */
+	public static final long NO_RECORD = -1;
+
+	private long fileLength;
+
+	private long recordStart;
+
+	public RecordAlignedSplit() {
+		super();
+	}
+
+	public RecordAlignedSplit(Path file, long start, long length, String[] hosts, long fileLength,
+			long recordStart) {
+		super(file, start, length, hosts);
+		this.fileLength = fileLength;
+		this.recordStart = recordStart;
+	}
+
+	/**
+	 * The length of the file this split belongs to
+	 */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * The offset in the file of the symbol ('{@literal >}' or '@') starting
+	 * the first record of this split, or {@link #NO_RECORD} if no record
+	 * starts in this split
+	 */
+	public long getRecordStart() {
+		return recordStart;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeLong(fileLength);
+		out.writeLong(recordStart);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		fileLength = in.readLong();
+		recordStart = in.readLong();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " (record start: " + recordStart + ")";
+	}
+
+	/**
+	 * Replaces each {@code FileSplit} in splits with a
+	 * {@code RecordAlignedSplit}. The beginning of the first record of each
+	 * split is found by probing at most {@code record_aligned_probe_size}
+	 * bytes (default: 1 MB) from the start of the split. Splits where no
+	 * record start can be verified within the probe are left unchanged, and
+	 * their readers fall back to looking for it themselves. Splits of
+	 * compressed files, and the ones already record-aligned, are left unchanged
+	 * as well.
+	 *
+	 * @param splits the splits computed by {@code FileInputFormat}
+	 * @param conf the job configuration
+	 * @param marker the symbol starting a record, '{@literal >}' for FASTA
+	 * and '@' for FASTQ
+	 * @return the record-aligned splits, in the same order
+	 * @throws IOException
+	 */
+	public static List<InputSplit> alignSplits(List<InputSplit> splits, Configuration conf, byte marker)
+			throws IOException {
+
+		int probeSize = conf.getInt("record_aligned_probe_size", 1024 * 1024);
+
+		List<InputSplit> alignedSplits = new ArrayList<InputSplit>(splits.size());
+		CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+
+		Path currPath = null;
+		FSDataInputStream inputFile = null;
+		long fileLength = 0;
+
+		try {
+			for (InputSplit genericSplit : splits) {
+
+				/*
+				 * Splits already aligned, e.g. using an index, are kept
+				 */
+				if (genericSplit instanceof RecordAlignedSplit) {
+					alignedSplits.add(genericSplit);
+					continue;
+				}
+
+				FileSplit split = (FileSplit) genericSplit;
+
+				/*
+				 * Offsets of compressed files do not match the ones of their
+				 * records
+				 */
+				if (codecs.getCodec(split.getPath()) != null) {
+					alignedSplits.add(split);
+					continue;
+				}
+
+				/*
+				 * Splits of the same file are contiguous, so each file is
+				 * opened only once
+				 */
+				if (!split.getPath().equals(currPath)) {
+					if (inputFile != null)
+						inputFile.close();
+
+					currPath = split.getPath();
+					FileSystem fs = currPath.getFileSystem(conf);
+					fileLength = fs.getFileStatus(currPath).getLen();
+					inputFile = fs.open(currPath);
+				}
+
+				Probe probe = new Probe(inputFile, split.getStart(), fileLength, probeSize);
+				long recordStart = findRecordStart(probe, split, marker);
+
+				if (recordStart == Probe.UNKNOWN) {
+					alignedSplits.add(split);
+				} else {
+					alignedSplits.add(new RecordAlignedSplit(split.getPath(), split.getStart(),
+							split.getLength(), split.getLocations(), fileLength, recordStart));
+				}
+			}
+		} finally {
+			if (inputFile != null)
+				inputFile.close();
+		}
+
+		return alignedSplits;
+	}
+
+	/*
+	 * Returns the offset of the first record starting in split,
+	 * NO_RECORD if the split does not contain the beginning of a record or
+	 * Probe.UNKNOWN if no record start could be verified within the probe
+	 */
+	private static long findRecordStart(Probe probe, FileSplit split, byte marker) throws IOException {
+
+		long endByte = split.getStart() + split.getLength();
+
+		for (long pos = split.getStart(); pos < endByte; pos++) {
+
+			int b = probe.byteAt(pos);
+
+			if (b < 0)
+				return probe.isTruncated() ? Probe.UNKNOWN : NO_RECORD;
+
+			if (b != marker || (pos > 0 && probe.byteAt(pos - 1) != '\n'))
+				continue;
+
+			if (marker != '@')
+				return pos;
+
+			/*
+			 * In FASTQ files, quality lines can start with '@' as well. We
+			 * accept the candidate if it is followed by a sequence line, a
+			 * line starting with '+' and a quality line as long as the
+			 * sequence line
+			 */
+			long sequence = probe.nextLine(pos);
+			long secondHeader = probe.nextLine(sequence);
+
+			/*
+			 * The candidate cannot be verified if its lines do not end
+			 * within the probe
+			 */
+			if (secondHeader < 0 && probe.isTruncated())
+				return Probe.UNKNOWN;
+
+			if (secondHeader < 0 || probe.byteAt(secondHeader) != '+')
+				continue;
+
+			long quality = probe.nextLine(secondHeader);
+			long qualityEnd = probe.lineEnd(quality);
+
+			if (qualityEnd < 0 && probe.isTruncated())
+				return Probe.UNKNOWN;
+
+			if (qualityEnd >= 0 && qualityEnd - quality == secondHeader - 1 - sequence)
+				return pos;
+		}
+
+		return NO_RECORD;
+	}
+
+	/*
+	 * Bytes of a file around the beginning of a split, fetched on demand with
+	 * positioned reads of increasing size
+	 */
+	private static class Probe {
+
+		static final long UNKNOWN = -2;
+
+		private final FSDataInputStream inputFile;
+
+		/*
+		 * Offset in the input file of the first byte of the buffer
+		 */
+		private final long firstByte;
+
+		/*
+		 * Offset past the last byte that can be fetched
+		 */
+		private final long limit;
+
+		private final long fileLength;
+
+		private byte[] buffer = new byte[4096];
+
+		private int sizeBuffer;
+
+		Probe(FSDataInputStream inputFile, long startByte, long fileLength, int probeSize) {
+			this.inputFile = inputFile;
+			this.firstByte = Math.max(startByte - 1, 0);
+			this.limit = Math.min(fileLength, startByte + probeSize);
+			this.fileLength = fileLength;
+		}
+
+		/*
+		 * True, if the probe does not reach the end of the file
+		 */
+		boolean isTruncated() {
+			return limit < fileLength;
+		}
+
+		/*
+		 * Returns the byte at offset pos of the file, or -1 if pos is past
+		 * the end of the probe
+		 */
+		int byteAt(long pos) throws IOException {
+
+			if (pos < firstByte || pos >= limit)
+				return -1;
+
+			while (pos - firstByte >= sizeBuffer) {
+
+				if (sizeBuffer == buffer.length) {
+					byte[] largerBuffer = new byte[(int) Math.min(2L * buffer.length, limit - firstByte)];
+					System.arraycopy(buffer, 0, largerBuffer, 0, sizeBuffer);
+					buffer = largerBuffer;
+				}
+
+				int read = inputFile.read(firstByte + sizeBuffer, buffer, sizeBuffer, buffer.length - sizeBuffer);
+
+				if (read <= 0)
+					return -1;
+
+				sizeBuffer += read;
+			}
+
+			return buffer[(int) (pos - firstByte)];
+		}
+
+		/*
+		 * Returns the offset of the newline ending the line containing pos,
+		 * the length of the file if the line ends there, or -1 if the line
+		 * does not end within the probe
+		 */
+		long lineEnd(long pos) throws IOException {
+
+			if (pos < 0)
+				return -1;
+
+			for (; pos < limit; pos++) {
+				if (byteAt(pos) == '\n')
+					return pos;
+			}
+
+			return isTruncated() ? -1 : limit;
+		}
+
+		/*
+		 * Returns the offset of the line following the one containing pos, or
+		 * -1 if it does not start within the probe
+		 */
+		long nextLine(long pos) throws IOException {
+
+			long end = lineEnd(pos);
+
+			return end < 0 || end + 1 >= limit ? -1 : end + 1;
+		}
+	}
+
+}
@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A read-only sequence of bytes addressed by long offsets, stored in one or
+ * more {@code ByteBuffer} segments. All the segments but the last one have
+ * the same size, a power of two, so that the content of an input split
+ * larger than 2 GB can be held in memory.
+ *
+ * Segments can be stored in the heap, in direct buffers taken from the pool
+ * shared by the record readers, or they can be memory-mapped. Direct
+ * segments are given back to the pool by {@link #close()}, after which the
+ * buffer must not be used anymore.
+ */
+public class SegmentedBuffer implements Closeable {
+
+	/*
+	 * Size of the chunks used to fill direct segments from streams that
+	 * cannot read in a ByteBuffer
+	 */
+	private static final int COPY_SIZE = 1024 * 1024;
+
+	private final ByteBuffer[] segments;
+
+	private final int segmentShift;
+
+	private final long segmentMask;
+
+	private final long length;
+
+	/*
+	 * True, if the segments have been taken from the pool of direct buffers
+	 */
+	private boolean pooled;
+
+	private SegmentedBuffer(ByteBuffer[] segments, int segmentShift, long length, boolean pooled) {
+		this.segments = segments;
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+		this.length = length;
+		this.pooled = pooled;
+	}
+
+	/**
+	 * Returns a buffer made of a single segment, holding the bytes of buffer
+	 * between position 0 and its limit
+	 */
+	public static SegmentedBuffer wrap(ByteBuffer buffer) {
+		return new SegmentedBuffer(new ByteBuffer[] { buffer }, 31, buffer.limit(), false);
+	}
+
+	/**
+	 * Reads length bytes of inputFile, starting at offset start, or up to
+	 * the end of the file if it is shorter.
+	 *
+	 * @param inputFile the stream of the file
+	 * @param start offset of the first byte to be read
+	 * @param length number of bytes to be read
+	 * @param segmentSize size of each segment, rounded down to a power of
+	 * two
+	 * @param direct if true, segments are taken from the pool of direct
+	 * buffers, otherwise they are allocated in the heap
+	 * @return the bytes read
+	 * @throws IOException
+	 */
+	public static SegmentedBuffer read(FSDataInputStream inputFile, long start, long length, int segmentSize,
+			boolean direct) throws IOException {
+
+		int shift = 31 - Integer.numberOfLeadingZeros(Math.max(segmentSize, 1024));
+		int count = (int) ((length + (1L << shift) - 1) >>> shift);
+		ByteBuffer[] segments = new ByteBuffer[Math.max(count, 1)];
+		SegmentedBuffer buffer = new SegmentedBuffer(segments, shift, 0, direct);
+		long read = 0;
+
+		try {
+			for (int i = 0; i < count; i++) {
+
+				int size = (int) Math.min(1L << shift, length - read);
+				segments[i] = direct ? readDirect(inputFile, start + read, size) : readHeap(inputFile, start + read, size);
+
+				read += segments[i].limit();
+
+				if (segments[i].limit() < size) {
+					/*
+					 * The end of the file has been reached
+					 */
+					count = i + 1;
+					break;
+				}
+			}
+		} catch (IOException e) {
+			buffer.close();
+			throw e;
+		}
+
+		if (segments[0] == null)
+			segments[0] = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
+		ByteBuffer[] filled = (count < segments.length) ? Arrays.copyOf(segments, count) : segments;
+
+		return new SegmentedBuffer(filled, shift, read, direct);
+	}
+
+	/**
+	 * Maps in memory length bytes of the file at path, starting at offset
+	 * start, or up to the end of the file if it is shorter. Returns null if
+	 * the file is not stored on the local file system.
+	 *
+	 * @see Utils#mapLocalFile(Path, Configuration, long, long)
+	 */
+	public static SegmentedBuffer map(Path path, Configuration conf, long start, long length, int segmentSize)
+			throws IOException {
+
+		int shift = 31 - Integer.numberOfLeadingZeros(Math.max(segmentSize, 1024));
+		int count = (int) ((length + (1L << shift) - 1) >>> shift);
+		ByteBuffer[] segments = new ByteBuffer[Math.max(count, 1)];
+		long mapped = 0;
+		int i = 0;
+
+		do {
+			long size = Math.min(1L << shift, length - mapped);
+			segments[i] = Utils.mapLocalFile(path, conf, start + mapped, size);
+
+			if (segments[i] == null)
+				return null;
+
+			mapped += segments[i].limit();
+
+			if (segments[i++].limit() < size)
+				break;
+
+		} while (i < count);
+
+		ByteBuffer[] filled = (i < segments.length) ? Arrays.copyOf(segments, i) : segments;
+
+		return new SegmentedBuffer(filled, shift, mapped, false);
+	}
+
+	/**
+	 * The number of bytes of this buffer
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * The number of segments of this buffer
+	 */
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Returns the segment of index i. Offsets are absolute positions in the
+	 * returned buffer, and the first byte of the segment is the byte at
+	 * offset {@code i * getSegmentSize()} of this buffer
+	 */
+	public ByteBuffer getSegment(int i) {
+		return segments[i];
+	}
+
+	/**
+	 * The size of each segment but the last one
+	 */
+	public long getSegmentSize() {
+		return 1L << segmentShift;
+	}
+
+	/**
+	 * Returns the byte at offset index
+	 */
+	public byte get(long index) {
+		return segments[(int) (index >>> segmentShift)].get((int) (index & segmentMask));
+	}
+
+	/**
+	 * Copies length bytes of this buffer, starting at offset index, in dest
+	 * starting at destPos
+	 */
+	public void get(long index, byte[] dest, int destPos, int length) {
+
+		while (length > 0) {
+
+			int posSegment = (int) (index & segmentMask);
+			int n = (int) Math.min(length, (1L << segmentShift) - posSegment);
+
+			Utils.copy(segments[(int) (index >>> segmentShift)], posSegment, dest, destPos, n);
+
+			index += n;
+			destPos += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Returns a copy of length bytes of this buffer, starting at offset
+	 * index
+	 */
+	public byte[] getBytes(long index, int length) {
+
+		byte[] bytes = new byte[length];
+		get(index, bytes, 0, length);
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the offset of the first occurrence of delimiter between from
+	 * (inclusive) and to (exclusive), or -1 if delimiter does not occur in
+	 * that range
+	 */
+	public long indexOf(byte delimiter, long from, long to) {
+
+		from = Math.max(from, 0);
+		to = Math.min(to, length);
+
+		while (from < to) {
+
+			int segment = (int) (from >>> segmentShift);
+			long segmentStart = (long) segment << segmentShift;
+			int end = (int) Math.min(to - segmentStart, segments[segment].limit());
+
+			int i = ByteScanner.indexOf(segments[segment], (int) (from - segmentStart), end, delimiter);
+
+			if (i >= 0)
+				return segmentStart + i;
+
+			from = segmentStart + (1L << segmentShift);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gives back the direct segments of this buffer to the pool they have
+	 * been taken from. Heap and memory-mapped segments are released by the
+	 * garbage collector once this buffer is not referenced anymore
+	 */
+	@Override
+	public void close() {
+
+		if (!pooled)
+			return;
+
+		pooled = false;
+
+		for (ByteBuffer segment : segments) {
+			if (segment != null)
+				Utils.releaseDirectBuffer(segment);
+		}
+	}
+
+	private static ByteBuffer readHeap(FSDataInputStream inputFile, long start, int size) throws IOException {
+
+		byte[] bytes = new byte[size];
+		int read = 0;
+
+		while (read < size) {
+
+			int n = inputFile.read(start + read, bytes, read, size - read);
+
+			if (n <= 0)
+				break;
+
+			read += n;
+		}
+
+		ByteBuffer segment = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		((Buffer) segment).limit(read);
+
+		return segment;
+	}
+
+	private static ByteBuffer readDirect(FSDataInputStream inputFile, long start, int size) throws IOException {
+
+		ByteBuffer segment = Utils.readDirect(inputFile, start, size);
+
+		if (segment != null)
+			return segment;
+
+		/*
+		 * The stream cannot read in a ByteBuffer, so the bytes are moved
+		 * through a small heap array
+		 */
+		segment = Utils.getDirectBuffer(size);
+		byte[] chunk = new byte[Math.min(size, COPY_SIZE)];
+
+		while (segment.hasRemaining()) {
+
+			int n = inputFile.read(start + segment.position(), chunk, 0, Math.min(chunk.length, segment.remaining()));
+
+			if (n <= 0)
+				break;
+
+			segment.put(chunk, 0, n);
+		}
+
+		((Buffer) segment).flip();
+		return segment;
+	}
+
+}
@@ -0,0 +1,415 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.util.Arrays;
+
+/**
+ * A read-only view of the bases of a {@code PartialSequence}, from its
+ * startValue to its endValue, without the line terminators of multi-line
+ * FASTA sequences. Bases are read from the buffer of the fragment, without
+ * copying it.
+ *
+ * The offset of each base in the buffer is computed arithmetically from the
+ * length of the lines, which is taken from the FAI index when the fragment
+ * has been read by {@code IndexedFastaReader}, and otherwise detected from
+ * the first lines of the fragment and checked against the position of all
+ * of its newlines. Fragments whose lines do not have the same length fall
+ * back to a table with the offset of each line.
+ *
+ * Positions are 0-based indexes among the bases of the fragment. The
+ * {@code CharSequence} methods address the first 2^31 - 1 bases only, while
+ * the other ones take long positions.
+ */
+public class SequenceView implements CharSequence {
+
+	private final byte[] buffer;
+
+	private final SegmentedBuffer segmentedBuffer;
+
+	/*
+	 * Offset of the first base, number of bases on its line and offset of
+	 * the following line, which is the first one of a series of lines of
+	 * lineBytes bytes, lineBases of which are bases
+	 */
+	private final long firstBase;
+
+	private final long firstLineBases;
+
+	private final long secondLine;
+
+	private final long lineBytes;
+
+	private final long lineBases;
+
+	/*
+	 * Used instead of the line geometry when lines do not have the same
+	 * length: offset of the first base of each line, and number of bases
+	 * preceding it
+	 */
+	private final long[] lineOffsets;
+
+	private final long[] lineStarts;
+
+	/*
+	 * First base of this view among the bases of the fragment, number of
+	 * bases of this view, and number of bases where k-mers can start
+	 */
+	private final long from;
+
+	private final long length;
+
+	private final long basesToProcess;
+
+	public SequenceView(PartialSequence fragment) {
+
+		this.buffer = fragment.getBuffer();
+		this.segmentedBuffer = (buffer == null) ? fragment.getSegmentedBuffer() : null;
+
+		long start = fragment.getStartValueLong();
+		long end = fragment.getEndValueLong();
+
+		/*
+		 * Line terminators at both ends are not part of the view
+		 */
+		while (start <= end && isTerminator(get(start)))
+			start++;
+
+		while (end >= start && isTerminator(get(end)))
+			end--;
+
+		this.firstBase = start;
+		this.from = 0;
+
+		long firstNewline = indexOfNewline(start, end + 1);
+		long[] table = null;
+
+		if (firstNewline < 0) {
+			/*
+			 * A single line
+			 */
+			firstLineBases = end - start + 1;
+			secondLine = end + 1;
+			lineBytes = 1;
+			lineBases = 1;
+		} else {
+			firstLineBases = firstNewline - start - ((get(firstNewline - 1) == '\r') ? 1 : 0);
+			secondLine = firstNewline + 1;
+
+			if (fragment.getBytesPerLine() > 0) {
+				lineBytes = fragment.getBytesPerLine();
+				lineBases = fragment.getBpsPerLine();
+			} else {
+				long secondNewline = indexOfNewline(secondLine, end + 1);
+				lineBytes = (secondNewline < 0) ? end + 2 - secondLine : secondNewline + 1 - secondLine;
+				lineBases = (secondNewline > 0 && get(secondNewline - 1) == '\r') ? lineBytes - 2 : lineBytes - 1;
+
+				if (!hasRegularLines(end))
+					table = buildLineTable(start, end);
+			}
+		}
+
+		if (table != null) {
+			int lines = table.length / 2;
+			lineOffsets = Arrays.copyOf(table, lines);
+			lineStarts = Arrays.copyOfRange(table, lines, table.length);
+		} else {
+			lineOffsets = null;
+			lineStarts = null;
+		}
+
+		this.length = (end < start) ? 0 : basesBefore(end) + 1;
+
+		long limit = fragment.getStartValueLong() + Math.max(fragment.getBytesToProcessLong(), 0);
+		this.basesToProcess = Math.min(basesBefore(limit), length);
+	}
+
+	private SequenceView(SequenceView view, long from, long length) {
+		this.buffer = view.buffer;
+		this.segmentedBuffer = view.segmentedBuffer;
+		this.firstBase = view.firstBase;
+		this.firstLineBases = view.firstLineBases;
+		this.secondLine = view.secondLine;
+		this.lineBytes = view.lineBytes;
+		this.lineBases = view.lineBases;
+		this.lineOffsets = view.lineOffsets;
+		this.lineStarts = view.lineStarts;
+		this.from = from;
+		this.length = length;
+		this.basesToProcess = Math.max(Math.min(view.basesToProcess - (from - view.from), length), 0);
+	}
+
+	/**
+	 * The number of bases of this view
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * The number of bases, from the first one, where k-mers can start, i.e.
+	 * the bases found in the first bytesToProcess bytes of the fragment
+	 */
+	public long getBasesToProcess() {
+		return basesToProcess;
+	}
+
+	/**
+	 * The offset in the buffer of the fragment of the base at position index
+	 */
+	public long getOffset(long index) {
+
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Base " + index + " of " + length);
+
+		return offsetOf(from + index);
+	}
+
+	/**
+	 * The base at position index
+	 */
+	public byte byteAt(long index) {
+		return get(getOffset(index));
+	}
+
+	/**
+	 * Copies the bases of this view from position index in dest, starting
+	 * at destPos, one line at a time
+	 */
+	public void copy(long index, byte[] dest, int destPos, int count) {
+
+		if (index < 0 || count < 0 || index + count > length)
+			throw new IndexOutOfBoundsException("Bases " + index + "-" + (index + count) + " of " + length);
+
+		long base = from + index;
+
+		while (count > 0) {
+
+			long offset = offsetOf(base);
+			int n = (int) Math.min(count, basesLeftInLine(base));
+
+			if (buffer != null)
+				System.arraycopy(buffer, (int) offset, dest, destPos, n);
+			else
+				segmentedBuffer.get(offset, dest, destPos, n);
+
+			base += n;
+			destPos += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Returns a copy of the bases of this view
+	 */
+	public byte[] getBytes() {
+
+		byte[] bytes = new byte[Math.toIntExact(length)];
+		copy(0, bytes, 0, bytes.length);
+
+		return bytes;
+	}
+
+	@Override
+	public int length() {
+		return (int) Math.min(length, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (byteAt(index) & 0xFF);
+	}
+
+	/**
+	 * Returns a view of the bases between start (inclusive) and end
+	 * (exclusive), sharing the buffer of this view
+	 */
+	public SequenceView subSequence(long start, long end) {
+
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("Bases " + start + "-" + end + " of " + length);
+
+		return new SequenceView(this, from + start, end - start);
+	}
+
+	@Override
+	public SequenceView subSequence(int start, int end) {
+		return subSequence((long) start, (long) end);
+	}
+
+	@Override
+	public String toString() {
+		return new String(getBytes());
+	}
+
+	/*
+	 * Offset of the base of index base among the bases of the fragment
+	 */
+	private long offsetOf(long base) {
+
+		if (lineOffsets != null) {
+			int line = findLine(base);
+			return lineOffsets[line] + base - lineStarts[line];
+		}
+
+		if (base < firstLineBases)
+			return firstBase + base;
+
+		long i = base - firstLineBases;
+
+		return secondLine + (i / lineBases) * lineBytes + i % lineBases;
+	}
+
+	/*
+	 * Number of bases following the base of index base on its line, itself
+	 * included
+	 */
+	private long basesLeftInLine(long base) {
+
+		if (lineOffsets != null) {
+			int line = findLine(base);
+			long next = (line + 1 < lineStarts.length) ? lineStarts[line + 1] : Long.MAX_VALUE;
+			return next - base;
+		}
+
+		if (base < firstLineBases)
+			return firstLineBases - base;
+
+		return lineBases - (base - firstLineBases) % lineBases;
+	}
+
+	/*
+	 * Number of bases of the fragment at offsets lower than offset
+	 */
+	private long basesBefore(long offset) {
+
+		if (offset <= firstBase)
+			return 0;
+
+		if (lineOffsets != null) {
+			int line = Arrays.binarySearch(lineOffsets, offset);
+
+			if (line >= 0)
+				return lineStarts[line];
+
+			line = -line - 2;
+			long lineLength = ((line + 1 < lineStarts.length) ? lineStarts[line + 1] : Long.MAX_VALUE)
+					- lineStarts[line];
+
+			return lineStarts[line] + Math.min(offset - lineOffsets[line], lineLength);
+		}
+
+		if (offset < secondLine)
+			return Math.min(offset - firstBase, firstLineBases);
+
+		long i = offset - secondLine;
+
+		return firstLineBases + (i / lineBytes) * lineBases + Math.min(i % lineBytes, lineBases);
+	}
+
+	private int findLine(long base) {
+
+		int line = Arrays.binarySearch(lineStarts, base);
+
+		return (line >= 0) ? line : -line - 2;
+	}
+
+	/*
+	 * True, if all the lines following the first one have lineBytes bytes,
+	 * except the last one, which can be shorter
+	 */
+	private boolean hasRegularLines(long end) {
+
+		long lineStart = secondLine;
+
+		while (lineStart <= end) {
+
+			long newline = indexOfNewline(lineStart, end + 1);
+
+			if (newline < 0)
+				return end + 1 - lineStart <= lineBases;
+
+			if (newline + 1 - lineStart != lineBytes)
+				return false;
+
+			if (lineBytes - lineBases == 2 && get(newline - 1) != '\r')
+				return false;
+
+			lineStart = newline + 1;
+		}
+
+		return true;
+	}
+
+	/*
+	 * Returns the offsets of the first base of each non-empty line, followed
+	 * by the number of bases preceding each of them
+	 */
+	private long[] buildLineTable(long start, long end) {
+
+		long[] offsets = new long[16];
+		long[] starts = new long[16];
+		int lines = 0;
+		long bases = 0;
+		long lineStart = start;
+
+		while (lineStart <= end) {
+
+			long newline = indexOfNewline(lineStart, end + 1);
+			long lineEnd = (newline < 0) ? end + 1 : newline;
+
+			while (lineEnd > lineStart && get(lineEnd - 1) == '\r')
+				lineEnd--;
+
+			if (lineEnd > lineStart) {
+				if (lines == offsets.length) {
+					offsets = Arrays.copyOf(offsets, lines * 2);
+					starts = Arrays.copyOf(starts, lines * 2);
+				}
+
+				offsets[lines] = lineStart;
+				starts[lines++] = bases;
+				bases += lineEnd - lineStart;
+			}
+
+			lineStart = (newline < 0) ? end + 1 : newline + 1;
+		}
+
+		long[] table = Arrays.copyOf(offsets, lines * 2);
+		System.arraycopy(starts, 0, table, lines, lines);
+
+		return table;
+	}
+
+	private long indexOfNewline(long from, long to) {
+
+		if (buffer != null)
+			return ByteScanner.indexOf(buffer, (int) from, (int) Math.min(to, buffer.length), (byte) '\n');
+
+		return segmentedBuffer.indexOf((byte) '\n', from, to);
+	}
+
+	private byte get(long offset) {
+		return (buffer != null) ? buffer[(int) offset] : segmentedBuffer.get(offset);
+	}
+
+	private static boolean isTerminator(byte b) {
+		return b == '\n' || b == '\r';
+	}
+}
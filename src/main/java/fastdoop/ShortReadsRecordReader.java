@@ -18,8 +18,8 @@
 
 package fastdoop;
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.fs.Path;
@@ -50,6 +50,16 @@ import org.apache.hadoop.mapreduce.RecordReader;
  * TACCCCCTCTGGGCTAACTCGGAGCAAAGAACTTGGTAA
  * ...
  * 
+ * By default, the whole content of the input split is loaded in memory
+ * before returning the first record. If the {@code streaming_buffer_size}
+ * configuration parameter is set to a positive value, the split is instead
+ * parsed from a refillable window of that many bytes. Records crossing the
+ * end of the window are moved to its beginning before the window is
+ * refilled, so the window only grows when a single record does not fit in it.
+ * If the {@code mmap_local_files} configuration parameter is true and the
+ * file is stored on the local file system, the split is memory-mapped
+ * instead, and neither mode is used.
+ * 
  * @author Gianluca Roscigno
  * 
  * @version 1.0
@@ -74,12 +84,34 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	 */
 	private byte[] myInputSplitBuffer;
 
+	/*
+	 * The content of the input split, either loaded in myInputSplitBuffer or
+	 * memory-mapped (not used in streaming mode)
+	 */
+	private ByteBuffer splitBuffer;
+
+	/*
+	 * True, if splitBuffer has been taken from the pool of direct buffers
+	 */
+	private boolean pooledSplitBuffer;
+
 	/*
 	 * Auxiliary buffer used to store the ending buffer of this input split and
 	 * the initial bytes of the next split
 	 */
 	private byte[] borderBuffer;
 
+	/*
+	 * Maximum size borderBuffer can grow to
+	 */
+	private int maxBorderBufferSize;
+
+	/*
+	 * Initial bytes of the next input split, fetched only if a record crosses
+	 * the end of this input split
+	 */
+	private LookAheadBuffer lookAhead;
+
 	/*
 	 * Marks the current position in the input split buffer
 	 */
@@ -95,6 +127,31 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	 */
 	private boolean endMyInputSplit = false;
 
+	/*
+	 * The fields of a FASTA record. When the end of the input split is
+	 * reached while scanning a record, the field being scanned tells which
+	 * ones have to be completed using the initial bytes of the next split
+	 */
+	private enum Field {
+		KEY, VALUE
+	}
+
+	/*
+	 * True, if the input split is parsed from a refillable window rather than
+	 * being loaded in memory as a whole
+	 */
+	private boolean streaming;
+
+	/*
+	 * Offset in the input file of the first byte of the window (streaming mode)
+	 */
+	private long windowStart;
+
+	/*
+	 * Offset in the input file of the first byte of the next input split
+	 */
+	private long endByte;
+
 	public ShortReadsRecordReader() {
 		super();
 	}
@@ -108,32 +165,104 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 		int look_ahead_buffer_size = context.getConfiguration().getInt("look_ahead_buffer_size", 2048);
 
+		maxBorderBufferSize = context.getConfiguration().getInt("look_ahead_buffer_max_size", 64 * 1024 * 1024);
+
+		int streaming_buffer_size = context.getConfiguration().getInt("streaming_buffer_size", 0);
+
+		boolean mmap_local_files = context.getConfiguration().getBoolean("mmap_local_files", false);
+
+		boolean use_direct_buffers = context.getConfiguration().getBoolean("use_direct_buffers", false);
+
+		boolean async_look_ahead = context.getConfiguration().getBoolean("async_look_ahead", true);
+
 		/*
 		 * We open the file corresponding to the input split and
 		 * start processing it
 		 */
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
-		long fileLength = path.getFileSystem(job).getContentSummary(path).getLength();
+
+		/*
+		 * Record-aligned splits already know the length of the file and
+		 * where their first record starts
+		 */
+		RecordAlignedSplit alignedSplit = (split instanceof RecordAlignedSplit) ? (RecordAlignedSplit) split : null;
+
+		/*
+		 * If the file is stored on the local file system, the split can be
+		 * memory-mapped rather than loaded in the heap, unless it is
+		 * compressed. In this case, there is no need to parse it in
+		 * streaming mode
+		 */
+		ByteBuffer mappedSplit = null;
+
+		if (mmap_local_files && !Utils.isCompressed(split, job))
+			mappedSplit = Utils.mapLocalFile(path, job, split.getStart(), split.getLength());
+
+		if (streaming_buffer_size > 0 && mappedSplit == null) {
+			initializeStreaming(split, alignedSplit, job, streaming_buffer_size);
+			return;
+		}
+
 		startByte = split.getStart();
-		inputFile = path.getFileSystem(job).open(path);
+		inputFile = Utils.openSplit(split, job);
 		Utils.safeSeek(inputFile, startByte);
 
+		/*
+		 * Splits of files compressed with a codec have already been
+		 * decompressed, and the length of the file is known only if this
+		 * is the last split
+		 */
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
+		long fileLength = (decompressed != null) ? decompressed.getFileLength() : Utils.getFileLength(split, job);
+
 		currKey = new Text("null");
 		currValue = new Record();
 
+		/*
+		 * The first look_ahead_buffer_size bytes of the next split, if any,
+		 * are fetched in background while the split is read and parsed
+		 */
+		long splitEnd = startByte + split.getLength();
+		boolean prefetch = async_look_ahead && splitEnd < fileLength && decompressed == null;
+
+		lookAhead = new LookAheadBuffer(inputFile, splitEnd, look_ahead_buffer_size, maxBorderBufferSize);
+
 		/*
 		 * We read the whole content of the split in memory using
-		 * myInputSplitBuffer. Plus, we read in the memory the first
+		 * myInputSplitBuffer, unless it has been memory-mapped or it can be
+		 * read in a direct buffer. Plus, we read in the memory the first
 		 * KV_BUFFER_SIZE of the next split
 		 */
+		if (mappedSplit == null && use_direct_buffers) {
+			mappedSplit = Utils.readDirect(inputFile, startByte, (int) split.getLength());
+			pooledSplitBuffer = (mappedSplit != null);
+		}
 
-		myInputSplitBuffer = new byte[(int) split.getLength()];
-		currValue.setBuffer(myInputSplitBuffer);
+		if (mappedSplit != null) {
+			splitBuffer = mappedSplit;
+			sizeBuffer = mappedSplit.limit();
+		} else if (decompressed != null) {
+			myInputSplitBuffer = decompressed.getContent(0);
+			sizeBuffer = decompressed.getContentLength();
+			splitBuffer = ByteBuffer.wrap(myInputSplitBuffer, 0, sizeBuffer);
+		} else {
+			/*
+			 * Both positioned reads are issued at the same time
+			 */
+			if (prefetch) {
+				lookAhead.prefetch();
+				prefetch = false;
+			}
 
-		borderBuffer = new byte[look_ahead_buffer_size];
+			myInputSplitBuffer = new byte[(int) split.getLength()];
+			splitBuffer = ByteBuffer.wrap(myInputSplitBuffer);
+			sizeBuffer = inputFile.read(startByte, myInputSplitBuffer, 0, myInputSplitBuffer.length);
+		}
+
+		currValue.setByteBuffer(splitBuffer);
 
-		sizeBuffer = inputFile.read(startByte, myInputSplitBuffer, 0, myInputSplitBuffer.length);
+		borderBuffer = new byte[look_ahead_buffer_size];
 
 		if (sizeBuffer <= 0) {
 			endMyInputSplit = true;
@@ -142,18 +271,31 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 		hasReadToEOF = (sizeBuffer < 0 || startByte + sizeBuffer >= fileLength);
 
-		Utils.safeSeek(inputFile, startByte + sizeBuffer);
+		/*
+		 * If the split has not been read entirely, the look-ahead starts
+		 * right after the bytes read
+		 */
+		if (startByte + sizeBuffer != splitEnd) {
+			lookAhead.close();
+			lookAhead = new LookAheadBuffer(inputFile, startByte + sizeBuffer, look_ahead_buffer_size,
+					maxBorderBufferSize);
+		} else if (prefetch) {
+			lookAhead.prefetch();
+		}
 
 		/*
 		 * We move the starting pointer past the first occurrence of the '>'
 		 * symbol as we assume these characters
 		 * will be processed together with the previous split
 		 */
-		for (int i = 0; i < sizeBuffer; i++) {
-			if (myInputSplitBuffer[i] == '>') {
+		if (alignedSplit != null) {
+			if (alignedSplit.getRecordStart() != RecordAlignedSplit.NO_RECORD)
+				posBuffer = (int) (alignedSplit.getRecordStart() - startByte) + 1;
+		} else {
+			int i = ByteScanner.indexOf(splitBuffer, 0, sizeBuffer, (byte) '>');
+
+			if (i >= 0)
 				posBuffer = i + 1;
-				break;
-			}
 		}
 
 		if (posBuffer == 0) {
@@ -165,203 +307,419 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
 
+		if (streaming)
+			return nextKeyValueStreaming();
+
 		if (endMyInputSplit)
 			return false;
 
-		boolean nextsplitKey = false;
-		boolean nextsplitValue = false;
+		/*
+		 * The field being scanned when the end of the split is reached, if
+		 * any
+		 */
+		Field truncated = null;
+		int endBuffer = splitBuffer.limit();
 
 		currValue.setStartKey(posBuffer);
 
 		/*
 		 * We look for the next short sequence my moving posBuffer until a
 		 * newline character is found.
-		 * End of split is implicitly managed through
-		 * ArrayIndexOutOfBoundsException handling
 		 */
-		try {
-			while (myInputSplitBuffer[posBuffer] != '\n') {
-				posBuffer++;
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
+		posBuffer = ByteScanner.indexOf(splitBuffer, posBuffer, endBuffer, (byte) '\n');
 
-			/*
-			 * If we reached the end of the split while scanning a sequence, we
-			 * use nextsplitKey to remember that more characters have to be
-			 * fetched from the next split for retrieving the key
-			 */
-			endMyInputSplit = true;
-			nextsplitKey = true;
+		if (posBuffer < 0) {
+			posBuffer = endBuffer;
+			truncated = Field.KEY;
 		}
 
 		currValue.setEndKey(posBuffer - 1);
 
-		if (!endMyInputSplit) {
+		if (truncated == null) {
 			/*
 			 * Assuming there are more characters from the current split to
 			 * process, we move forward the pointer
 			 * until the symbol '>' is found
 			 *
-			 * posBuffer + 1 can potentially overrun the end of the buffer, since the exception above
-			 * would not be thrown if the final character of the split is a \n. Check the offset accordingly.
+			 * posBuffer + 1 is past the end of the buffer if the final
+			 * character of the split is a \n. In this case, the value is
+			 * entirely contained in the next split
 			 */
-			currValue.setStartValue(Utils.trimToEnd(myInputSplitBuffer, posBuffer + 1));
+			currValue.setStartValue(posBuffer + 1);
+
+			posBuffer = ByteScanner.indexOf(splitBuffer, posBuffer, endBuffer, (byte) '>');
 
-			try {
-				while (myInputSplitBuffer[posBuffer] != '>') {
-					posBuffer++;
-				}
+			if (posBuffer >= 0) {
 
 				currValue.setEndValue(posBuffer - 2);
 				posBuffer++;
 
-			} catch (ArrayIndexOutOfBoundsException e) {
-				/*
-				 * If we reached the end of the split while scanning a sequence,
-				 * we use nextsplitValue to remember that more characters have
-				 * to be fetched from the next split for retrieving the value
-				 */
-				endMyInputSplit = true;
-				nextsplitValue = true;
-				currValue.setEndValue(posBuffer - 1);
-
+				return true;
 			}
 
+			posBuffer = endBuffer;
+			truncated = Field.VALUE;
+			currValue.setEndValue(posBuffer - 1);
 		}
 
 		/*
-		 * The end of the split has been reached
+		 * The end of the split has been reached while scanning a record
 		 */
-		if (endMyInputSplit) {
+		endMyInputSplit = true;
 
-			/*
-			 * First, we check if we reached the end of the HDFS file (not of
-			 * the split) in the initial read
-			 */
-			if (hasReadToEOF) {
-				int c = 0;
+		/*
+		 * First, we check if we reached the end of the HDFS file (not of the
+		 * split) in the initial read
+		 */
+		if (hasReadToEOF) {
+			int c = trailingNewlines(splitBuffer, posBuffer);
 
-				for (int i = posBuffer - 1; i >= 0; i--) {
-					if ( myInputSplitBuffer[i] != '\n')
-						break;
+			currValue.setEndValue(Math.max(posBuffer - 1 - c, currValue.getStartValue() - 1));
 
-					c++;
-				}
+			return true;
+		}
 
-				currValue.setEndValue(posBuffer - 1 - c);
+		/*
+		 * If there is another split after this one, we switch to
+		 * borderBuffer to fetch all the remaining characters of the record
+		 */
+		currValue.setBuffer(borderBuffer);
 
-				return true;
-			}
+		switch (truncated) {
+		case KEY:
+			int j = posBuffer - currValue.getStartKey();
+			ensureBorderCapacity(j);
+			Utils.copy(splitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
+
+			currValue.setStartKey(0);
 
 			/*
-			 * If there is another split after this one and we still need to
-			 * retrieve the
-			 * key of the current record, we switch to borderbuffer to fetch all
-			 * the remaining characters
+			 * The remaining characters of the key are fetched from the next
+			 * split, together with the newline ending it
 			 */
-			if (nextsplitKey) {
+			j += copyKeyFromLookAhead(j);
 
-				currValue.setBuffer(borderBuffer);
+			currValue.setEndKey(j - 1);
 
-				int j = posBuffer - currValue.getStartKey();
+			posBuffer = j;
+			currValue.setStartValue(posBuffer);
+			break;
 
-				System.arraycopy(myInputSplitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
+		case VALUE:
+			ensureBorderCapacity(sizeBuffer - currValue.getStartKey());
 
-				posBuffer = j;
+			j = currValue.getEndKey() + 1 - currValue.getStartKey();
+			Utils.copy(splitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
 
-				currValue.setStartKey(0);
-				nextsplitValue = true;
+			currValue.setStartKey(0);
+			currValue.setEndKey(j - 1);
 
-				byte b;
-				
-				try {
-					
-					while ((b = inputFile.readByte()) != '\n')
-						borderBuffer[j++] = b;
-					
-				} catch (EOFException e) {}
+			int start = currValue.getStartValue();
+			currValue.setStartValue(j);
+
+			if ((currValue.getEndValue() + 1 - start) > 0)
+				Utils.copy(splitBuffer, start, borderBuffer, j, (currValue.getEndValue() + 1 - start));
+
+			posBuffer = j + currValue.getEndValue() + 1 - start;
+			break;
+		}
 
-				if (!nextsplitValue)
-					return false;
+		/*
+		 * The remaining characters of the value are fetched from the next
+		 * split, up to the '>' symbol starting the next record
+		 */
+		int n = lookAhead.indexOf((byte) '>');
+		boolean found = n >= 0;
+
+		if (!found)
+			n = lookAhead.remaining();
+
+		ensureBorderCapacity(posBuffer + n);
+		posBuffer += lookAhead.copyTo(borderBuffer, posBuffer, n, false);
+
+		if (found)
+			currValue.setEndValue(posBuffer - 2);
+		else
+			currValue.setEndValue(posBuffer - 1 - trailingNewlines(ByteBuffer.wrap(borderBuffer), posBuffer));
+
+		return true;
+
+	}
+
+	/*
+	 * Copies in borderBuffer, starting at destPos, the initial bytes of the
+	 * next split up to the first newline (or to the end of the file). The
+	 * newline is consumed but not copied.
+	 * Returns the number of bytes copied
+	 */
+	private int copyKeyFromLookAhead(int destPos) throws IOException {
 
-				currValue.setEndKey(j - 1);
+		int n = lookAhead.indexOf((byte) '\n');
+		boolean found = n >= 0;
+
+		if (!found)
+			n = lookAhead.remaining();
+
+		ensureBorderCapacity(destPos + n);
+		int copied = lookAhead.copyTo(borderBuffer, destPos, n, false);
+
+		if (found)
+			lookAhead.skip(1);
+
+		return copied;
+	}
+
+	/*
+	 * Returns the number of newline characters preceding position end of
+	 * buffer
+	 */
+	private static int trailingNewlines(ByteBuffer buffer, int end) {
+
+		int c = 0;
+
+		while (c < end && buffer.get(end - 1 - c) == '\n')
+			c++;
+
+		return c;
+	}
+
+	/*
+	 * Enlarges borderBuffer, if needed, so that it can store at least
+	 * capacity bytes. Throws an IOException if more than
+	 * look_ahead_buffer_max_size bytes are required
+	 */
+	private void ensureBorderCapacity(int capacity) throws IOException {
+
+		borderBuffer = Utils.ensureCapacity(borderBuffer, borderBuffer.length, capacity, maxBorderBufferSize);
+		currValue.setBuffer(borderBuffer);
+	}
+
+	/*
+	 * Opens the input split for parsing it from a window of
+	 * streaming_buffer_size bytes. No record is read at this stage, we only
+	 * move past the first '>' symbol of the split
+	 */
+	private void initializeStreaming(FileSplit split, RecordAlignedSplit alignedSplit, Configuration job,
+			int streaming_buffer_size) throws IOException {
+
+		streaming = true;
+
+		startByte = split.getStart();
+		endByte = startByte + split.getLength();
+		inputFile = Utils.openSplit(split, job);
+
+		/*
+		 * Splits of files compressed with a codec have already been
+		 * decompressed in memory
+		 */
+		CodecSplitInputStream decompressed = CodecSplitInputStream.unwrap(inputFile);
+
+		if (decompressed != null)
+			endByte = startByte + decompressed.getContentLength();
+
+		currKey = new Text("null");
+		currValue = new Record();
+
+		myInputSplitBuffer = new byte[streaming_buffer_size];
+		currValue.setBuffer(myInputSplitBuffer);
+
+		windowStart = startByte;
+		sizeBuffer = 0;
+		posBuffer = 0;
+
+		if (alignedSplit != null) {
+			if (alignedSplit.getRecordStart() == RecordAlignedSplit.NO_RECORD) {
+				endMyInputSplit = true;
+				return;
 			}
 
 			/*
-			 * If there is another split after this one and we still need to
-			 * retrieve the value of the current record, we switch to
-			 * borderbuffer to fetch all the remaining characters
+			 * The window starts with the '>' symbol of the first record
 			 */
-			if (nextsplitValue) {
+			windowStart = alignedSplit.getRecordStart();
+		}
+
+		/*
+		 * We look for the first '>' symbol of the split, discarding the
+		 * window content as long as it is not found
+		 */
+		while (true) {
+
+			int i = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, sizeBuffer, (byte) '>');
+			posBuffer = (i >= 0) ? i : sizeBuffer;
+
+			if (posBuffer < sizeBuffer || windowStart + sizeBuffer >= endByte || !refillWindow())
+				break;
+		}
+
+		if (posBuffer >= sizeBuffer || windowStart + posBuffer >= endByte) {
+			endMyInputSplit = true;
+			return;
+		}
+
+		posBuffer++;
+	}
 
-				if (!nextsplitKey) {
+	/*
+	 * Moves the bytes of the window starting at posBuffer (i.e., the record
+	 * being parsed) to its beginning and fills the remaining space with the
+	 * next bytes of the input file. The window is doubled, up to
+	 * look_ahead_buffer_max_size bytes, if the record being parsed fills it
+	 * completely.
+	 * Returns false if the end of the file has been reached
+	 */
+	private boolean refillWindow() throws IOException {
 
-					currValue.setBuffer(borderBuffer);
+		int discarded = posBuffer;
 
-					int j = currValue.getEndKey() + 1 - currValue.getStartKey();
-					System.arraycopy(myInputSplitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
+		if (discarded > 0) {
+			System.arraycopy(myInputSplitBuffer, discarded, myInputSplitBuffer, 0, sizeBuffer - discarded);
+			windowStart += discarded;
+			sizeBuffer -= discarded;
+			posBuffer = 0;
+		}
 
-					currValue.setStartKey(0);
-					currValue.setEndKey(j - 1);
+		if (sizeBuffer == myInputSplitBuffer.length) {
+			myInputSplitBuffer = Utils.ensureCapacity(myInputSplitBuffer, sizeBuffer, sizeBuffer + 1,
+					maxBorderBufferSize);
+			currValue.setBuffer(myInputSplitBuffer);
+		}
+
+		int read = inputFile.read(windowStart + sizeBuffer, myInputSplitBuffer, sizeBuffer,
+				myInputSplitBuffer.length - sizeBuffer);
+
+		if (read <= 0)
+			return false;
+
+		sizeBuffer += read;
+		return true;
+	}
+
+	/*
+	 * Streaming counterpart of nextKeyValue. The record returned is a view of
+	 * the window and remains valid until the next invocation
+	 */
+	private boolean nextKeyValueStreaming() throws IOException {
+
+		if (endMyInputSplit)
+			return false;
+
+		/*
+		 * Records starting in the next split are left to the reader of that
+		 * split
+		 */
+		if (windowStart + posBuffer - 1 >= endByte) {
+			endMyInputSplit = true;
+			return false;
+		}
+
+		int scanPos = posBuffer;
+		boolean eof = false;
+
+		/*
+		 * We look for the newline character ending the key, refilling the
+		 * window when it is not found
+		 */
+		while (true) {
 
-					int start = currValue.getStartValue();
-					currValue.setStartValue(j);
+			int i = ByteScanner.indexOf(myInputSplitBuffer, scanPos, sizeBuffer, (byte) '\n');
+			scanPos = (i >= 0) ? i : sizeBuffer;
 
-					if ((currValue.getEndValue() + 1 - start) > 0) // TODO VERIFICARE
-						System.arraycopy(myInputSplitBuffer, start, borderBuffer, j, (currValue.getEndValue() + 1 - start));
-					posBuffer = j + currValue.getEndValue() + 1 - start;
+			if (scanPos < sizeBuffer)
+				break;
 
-					currValue.setEndValue(posBuffer);
+			int discarded = posBuffer;
+			boolean moreBytes = refillWindow();
+			scanPos -= discarded;
 
-				} else {
-					posBuffer = currValue.getEndKey() + 1;
-					currValue.setStartValue(posBuffer);
-				}
+			if (!moreBytes) {
+				eof = true;
+				break;
+			}
+		}
 
-				byte b = 'a';
+		currValue.setStartKey(posBuffer);
+		currValue.setEndKey(scanPos - 1);
+		currValue.setStartValue(scanPos + 1);
 
-				try {
-					
-					while ((b = inputFile.readByte()) != '>') 
-						borderBuffer[posBuffer++] = b;
-					
-				} catch (EOFException e) {}
+		/*
+		 * We look for the '>' symbol starting the next record, refilling the
+		 * window when it is not found
+		 */
+		while (!eof) {
 
-				if (b == '>')
-					currValue.setEndValue(posBuffer - 2);
-				else {
+			int i = ByteScanner.indexOf(myInputSplitBuffer, scanPos, sizeBuffer, (byte) '>');
+			scanPos = (i >= 0) ? i : sizeBuffer;
 
-					int c = 0;
+			if (scanPos < sizeBuffer)
+				break;
 
-					for (int i = posBuffer - 1; i >= 0; i--) {
+			int discarded = posBuffer;
+			boolean moreBytes = refillWindow();
 
-						if (borderBuffer[i] != '\n')
-							break;
+			scanPos -= discarded;
+			currValue.setStartKey(currValue.getStartKey() - discarded);
+			currValue.setEndKey(currValue.getEndKey() - discarded);
+			currValue.setStartValue(currValue.getStartValue() - discarded);
 
-						c++;
-					}
+			if (!moreBytes) {
+				eof = true;
+				break;
+			}
+		}
 
-					currValue.setEndValue(posBuffer - 1 - c);
+		if (eof) {
+			/*
+			 * This is the last record of the file, we trim all the ending
+			 * '\n' characters
+			 */
+			int c = 0;
 
-				}
+			for (int i = sizeBuffer - 1; i >= currValue.getStartValue(); i--) {
+				if (myInputSplitBuffer[i] != '\n')
+					break;
 
+				c++;
 			}
+
+			currValue.setStartValue(Math.min(currValue.getStartValue(), sizeBuffer));
+			currValue.setEndValue(sizeBuffer - 1 - c);
+			endMyInputSplit = true;
+
+		} else {
+			currValue.setEndValue(scanPos - 2);
+			posBuffer = scanPos + 1;
 		}
 
 		return true;
-
 	}
 
 	@Override
 	public float getProgress() throws IOException, InterruptedException {
+
+		if (streaming) {
+			if (endMyInputSplit || endByte <= startByte)
+				return 1;
+
+			return Math.min(1.0f, (windowStart + posBuffer - startByte) / (float) (endByte - startByte));
+		}
+
 		return sizeBuffer > 0 ? posBuffer / sizeBuffer : 1;
 	}
 
 	@Override
 	public void close() throws IOException {
 
+		if (lookAhead != null)
+			lookAhead.close();
+
 		if (inputFile != null)
 			inputFile.close();
+
+		if (pooledSplitBuffer) {
+			Utils.releaseDirectBuffer(splitBuffer);
+			pooledSplitBuffer = false;
+		}
 	}
 
 	@Override
@@ -1,12 +1,38 @@
 package fastdoop;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
+import java.io.DataOutput;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 class Utils {
 
+    /*
+     * Direct buffers used by the readers are recycled across the tasks running in the same JVM
+     */
+    private static final ByteBufferPool DIRECT_BUFFER_POOL = new ElasticByteBufferPool();
+
     /**
      * From FSUtils in HUDI https://github.com/apache/hudi
      * <p>
@@ -43,12 +69,313 @@ class Utils {
     }
 
     /**
-     * Adjust an offset into a buffer such that the offset does not overrun the buffer end.
-     * @param buffer
-     * @param offset
-     * @return
+     * Returns a buffer with room for at least capacity bytes and holding the first length bytes of
+     * buffer. The buffer is enlarged by doubling its size, but never past maxCapacity bytes.
+     *
+     * @param buffer buffer to be enlarged, if needed
+     * @param length number of bytes of buffer to be preserved
+     * @param capacity minimum number of bytes required
+     * @param maxCapacity maximum size of the buffer
+     * @return buffer itself, if large enough, or a larger copy of it
+     * @throws IOException if more than maxCapacity bytes are required
+     */
+    public static byte[] ensureCapacity(byte[] buffer, int length, int capacity, int maxCapacity) throws IOException {
+        if (capacity <= buffer.length) {
+            return buffer;
+        }
+
+        if (capacity > maxCapacity || capacity < 0) {
+            throw new IOException("A record crossing the end of the input split requires more than " + maxCapacity
+                    + " bytes of look-ahead buffer. Increase the look_ahead_buffer_max_size configuration parameter"
+                    + " to read this file");
+        }
+
+        byte[] largerBuffer = new byte[(int) Math.min(Math.max(2L * buffer.length, capacity), maxCapacity)];
+        System.arraycopy(buffer, 0, largerBuffer, 0, length);
+        return largerBuffer;
+    }
+
+    /**
+     * Maps in memory the region of a file starting at offset start and length bytes long (or up to
+     * the end of the file, if shorter). The file is mapped only if it is stored on the local file
+     * system, so that its content is served by the page cache without being copied in the heap.
+     *
+     * @param path path of the file
+     * @param conf the job configuration
+     * @param start offset of the first byte to be mapped
+     * @param length number of bytes to be mapped
+     * @return a read-only, little-endian buffer holding the region, or null if the file is not local
+     * or the region is too large to be mapped in a single buffer
+     * @throws IOException
+     */
+    public static ByteBuffer mapLocalFile(Path path, Configuration conf, long start, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        FileSystem fs = path.getFileSystem(conf);
+        File file;
+
+        if (fs instanceof LocalFileSystem) {
+            file = ((LocalFileSystem) fs).pathToFile(path);
+        } else if (fs instanceof RawLocalFileSystem) {
+            file = ((RawLocalFileSystem) fs).pathToFile(path);
+        } else {
+            return null;
+        }
+
+        /*
+         * The mapping stays valid after the channel is closed
+         */
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = Math.max(Math.min(length, channel.size() - start), 0);
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Copies length bytes of src, starting at the absolute position srcPos, in dest starting at
+     * destPos. The position and the limit of src are not modified.
+     *
+     * @param src source buffer
+     * @param srcPos position of the first byte to be copied
+     * @param dest destination array
+     * @param destPos position in dest of the first byte copied
+     * @param length number of bytes to be copied
+     */
+    public static void copy(ByteBuffer src, int srcPos, byte[] dest, int destPos, int length) {
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcPos, dest, destPos, length);
+            return;
+        }
+
+        /*
+         * Buffer methods are called through Buffer, since ByteBuffer overrides them only since
+         * Java 9
+         */
+        ByteBuffer view = src.duplicate();
+        ((Buffer) view).clear();
+        ((Buffer) view).position(srcPos);
+        view.get(dest, destPos, length);
+    }
+
+    /**
+     * Returns a copy of length bytes of buffer, starting at the absolute position offset.
+     *
+     * @param buffer source buffer
+     * @param offset position of the first byte to be copied
+     * @param length number of bytes to be copied
+     * @return the copied bytes
+     */
+    public static byte[] getBytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[Math.max(length, 0)];
+        copy(buffer, offset, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Writes length bytes of a record, starting at the absolute position start, preceded by their
+     * number as a variable-length int. The bytes are taken from buffer if it is not null, otherwise
+     * from byteBuffer.
+     *
+     * @param out the output
+     * @param buffer the heap buffer storing the record, or null
+     * @param byteBuffer the buffer storing the record, if not stored in the heap
+     * @param start position of the first byte to be written
+     * @param length number of bytes to be written (none, if negative)
+     * @throws IOException
+     */
+    public static void writeSlice(DataOutput out, byte[] buffer, ByteBuffer byteBuffer, int start, int length)
+            throws IOException {
+        length = Math.max(length, 0);
+        WritableUtils.writeVInt(out, length);
+
+        if (buffer != null)
+            out.write(buffer, start, length);
+        else
+            out.write(getBytes(byteBuffer, start, length));
+    }
+
+    /**
+     * Compares lexicographically two slices of bytes, taken from the heap buffers b1 and b2 if not
+     * null, otherwise from the buffers bb1 and bb2.
+     */
+    public static int compareSlices(byte[] b1, ByteBuffer bb1, int s1, int l1, byte[] b2, ByteBuffer bb2, int s2,
+            int l2) {
+        l1 = Math.max(l1, 0);
+        l2 = Math.max(l2, 0);
+
+        if (b1 == null) {
+            b1 = getBytes(bb1, s1, l1);
+            s1 = 0;
+        }
+
+        if (b2 == null) {
+            b2 = getBytes(bb2, s2, l2);
+            s2 = 0;
+        }
+
+        return WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+
+    /**
+     * Compares lexicographically the slices of bytes written by
+     * {@link #writeSlice(DataOutput, byte[], ByteBuffer, int, int)} at positions s1 of b1 and s2 of
+     * b2.
+     *
+     * @throws IOException if the length of a slice is malformed
+     */
+    public static int compareSerializedSlices(byte[] b1, int s1, byte[] b2, int s2) throws IOException {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+
+        return WritableComparator.compareBytes(b1, s1 + n1, WritableComparator.readVInt(b1, s1), b2, s2 + n2,
+                WritableComparator.readVInt(b2, s2));
+    }
+
+    /**
+     * Returns the number of bytes of the slice written by
+     * {@link #writeSlice(DataOutput, byte[], ByteBuffer, int, int)} at position s of b, its length
+     * included.
+     *
+     * @throws IOException if the length of the slice is malformed
+     */
+    public static int getSerializedSliceLength(byte[] b, int s) throws IOException {
+        return WritableUtils.decodeVIntSize(b[s]) + WritableComparator.readVInt(b, s);
+    }
+
+    /**
+     * Reads length bytes of a file, starting at offset start (or up to the end of the file, if
+     * shorter), in a direct buffer taken from a pool shared by the readers. The bytes are read
+     * using {@code ByteBufferReadable}, so that streams holding their data in direct buffers (e.g.,
+     * the HDFS one) do not copy it in the heap. The buffer must be given back with
+     * {@link #releaseDirectBuffer(ByteBuffer)} when no longer used.
+     *
+     * @param inputStream the stream of the file
+     * @param start offset of the first byte to be read
+     * @param length number of bytes to be read
+     * @return a little-endian buffer holding the bytes read between position 0 and its limit, or null
+     * if the stream does not support {@code ByteBufferReadable}
+     * @throws IOException
+     */
+    public static ByteBuffer readDirect(FSDataInputStream inputStream, long start, int length) throws IOException {
+        if (!(inputStream.getWrappedStream() instanceof ByteBufferReadable)) {
+            return null;
+        }
+
+        ByteBuffer buffer = getDirectBuffer(length);
+
+        try {
+            safeSeek(inputStream, start);
+
+            while (buffer.hasRemaining() && inputStream.read(buffer) > 0) {
+                /*
+                 * Reads may return fewer bytes than requested
+                 */
+            }
+        } catch (UnsupportedOperationException e) {
+            /*
+             * Some streams implement the interface without supporting it
+             */
+            DIRECT_BUFFER_POOL.putBuffer(buffer);
+            return null;
+        }
+
+        ((Buffer) buffer).flip();
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Takes a direct buffer from the pool used by {@link #readDirect(FSDataInputStream, long, int)}.
+     *
+     * @param length number of bytes the buffer must hold
+     * @return an empty little-endian buffer, whose limit is length
+     */
+    public static ByteBuffer getDirectBuffer(int length) {
+        ByteBuffer buffer = DIRECT_BUFFER_POOL.getBuffer(true, length);
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gives back to the pool a buffer returned by {@link #readDirect(FSDataInputStream, long, int)}
+     * or by {@link #getDirectBuffer(int)}.
+     *
+     * @param buffer the buffer, which must not be used anymore
+     */
+    public static void releaseDirectBuffer(ByteBuffer buffer) {
+        DIRECT_BUFFER_POOL.putBuffer(buffer);
+    }
+
+    /**
+     * Opens the file of an input split. Splits of compressed files, i.e., BGZF files and files
+     * compressed with a codec known to Hadoop (e.g., bzip2), are decompressed at this stage, and
+     * they can be accessed through {@code CodecSplitInputStream.unwrap}.
+     *
+     * @param split the input split
+     * @param conf the job configuration
+     * @return a stream reading the content of the file
+     * @throws IOException
+     */
+    public static FSDataInputStream openSplit(FileSplit split, Configuration conf) throws IOException {
+        CompressionCodec codec = CodecSplitInputStream.getCodec(split, conf);
+
+        if (codec != null) {
+            return new FSDataInputStream(CodecSplitInputStream.open(split, conf, codec));
+        }
+
+        if (split instanceof BGZFSplit) {
+            return new FSDataInputStream(CodecSplitInputStream.openBGZF((BGZFSplit) split, conf));
+        }
+
+        Path path = split.getPath();
+        return path.getFileSystem(conf).open(path);
+    }
+
+    /**
+     * Returns true if a file can be split, i.e., if it is not compressed or it is compressed with a
+     * {@code SplittableCompressionCodec} (e.g., bzip2).
+     *
+     * @param conf the job configuration
+     * @param path path of the file
+     * @return true, if the file can be split
+     */
+    public static boolean isSplitable(Configuration conf, Path path) {
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    /**
+     * Returns true if the file of an input split is compressed, either in the BGZF format or with a
+     * codec known to Hadoop.
+     *
+     * @param split the input split
+     * @param conf the job configuration
+     * @return true, if the file is compressed
+     */
+    public static boolean isCompressed(FileSplit split, Configuration conf) {
+        return split instanceof BGZFSplit || CodecSplitInputStream.getCodec(split, conf) != null;
+    }
+
+    /**
+     * Returns the length of the file of an input split, as seen through
+     * {@link #openSplit(FileSplit, Configuration)}. The file system is queried only if the split does
+     * not carry the length of its file. The length of compressed files is not known in advance, and
+     * it is provided by {@code CodecSplitInputStream} instead.
+     *
+     * @param split the input split
+     * @param conf the job configuration
+     * @return the length of the (uncompressed) file
+     * @throws IOException
      */
-    public static int trimToEnd(byte[] buffer, int offset) {
-        return (offset <= buffer.length - 1) ? offset : (buffer.length - 1);
+    public static long getFileLength(FileSplit split, Configuration conf) throws IOException {
+        if (split instanceof RecordAlignedSplit) {
+            return ((RecordAlignedSplit) split).getFileLength();
+        }
+
+        Path path = split.getPath();
+        return path.getFileSystem(conf).getContentSummary(path).getLength();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+/**
+ * SIMD versions of the {@code ByteScanner} kernels, based on the Vector API
+ * ({@code jdk.incubator.vector}).
+ *
+ * This is the version of the class loaded on Java 8 to 16, where the Vector
+ * API does not exist: the kernels are never enabled, and they fall back to
+ * the scalar code of {@code ByteScanner}. The FASTdoop jar is a
+ * multi-release jar whose {@code META-INF/versions/17} directory contains the
+ * version of this class loaded on Java 17 or later.
+ */
+final class VectorKernels {
+
+	/*
+	 * True, if the kernels can be used
+	 */
+	static final boolean ENABLED = false;
+
+	private VectorKernels() {
+	}
+
+	/*
+	 * As ENABLED is false, ByteScanner does not call back these methods
+	 */
+	static int indexOf(byte[] buffer, int from, int to, byte delimiter) {
+		return ByteScanner.indexOf(buffer, from, to, delimiter);
+	}
+
+	static int copyWithoutNewlines(byte[] src, int from, int to, byte[] dest, int destPos) {
+		return ByteScanner.copyWithoutNewlines(src, from, to, dest, destPos);
+	}
+
+}
@@ -0,0 +1,452 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.hadoop.conf.*;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.io.compress.*;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.*;
+
+import fastdoop.BGZFFASTAshortInputFileFormat;
+import fastdoop.BGZFFASTQInputFileFormat;
+import fastdoop.FASTAlongInputFileFormat;
+import fastdoop.FASTAshortInputFileFormat;
+import fastdoop.FASTQIndex;
+import fastdoop.FASTQInputFileFormat;
+import fastdoop.PartialSequence;
+import fastdoop.QRecord;
+import fastdoop.Record;
+
+import org.apache.hadoop.mapreduce.lib.input.*;
+
+/**
+ * A simple application checking the records returned by the input formats
+ * when reading the files of the {@code data} directory.
+ * 
+ * Each file is read with several split sizes and configurations, and the
+ * records returned by all of its splits are compared with the ones stored
+ * in the {@code expected} subdirectory, which were written by the first
+ * release of FASTdoop. Short sequences must not depend on the split size,
+ * while long sequences are compared with the ones written for the same
+ * split size.
+ * 
+ * The check also covers FASTQ files indexed by {@code FASTQIndex}, and
+ * copies of the files compressed with bgzip, gzip and bzip2, which must
+ * return the same records as the uncompressed ones.
+ * 
+ * With the {@code -write} option, the expected records are written using
+ * the classes found in the classpath, rather than checked.
+ * 
+ * @see FASTAshortInputFileFormat
+ * @see FASTAlongInputFileFormat
+ * @see FASTQInputFileFormat
+ */
+public class TestRecordStreams extends Configured implements Tool {
+
+	/*
+	 * The first split size is larger than any of the files, so that they
+	 * are read as a single split
+	 */
+	private static final long[] SPLIT_SIZES = { 1 << 20, 4096, 1000, 333, 128 };
+
+	/*
+	 * Configurations the files are read with, besides the default one
+	 */
+	private static final String[][] OPTIONS = { {}, { "mmap_local_files=true" }, { "use_direct_buffers=true" },
+			{ "async_look_ahead=false" }, { "streaming_buffer_size=64" }, { "look_ahead_buffer_size=16" },
+			{ "buffer_segment_size=256" }, { "record_aligned_splits=true" } };
+
+	/*
+	 * Size of the uncompressed blocks of the BGZF files
+	 */
+	private static final int BGZF_BLOCK_SIZE = 256;
+
+	private Path expectedDir;
+
+	private boolean write;
+
+	private Set<String> written = new HashSet<String>();
+
+	private int checks;
+
+	private int failures;
+
+	public static void main(String args[]) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: TestRecordStreams data_dir [-write]");
+			System.exit(1);
+		}
+
+		System.exit(ToolRunner.run(new TestRecordStreams(), args));
+	}
+
+	public int run(String[] args) throws Exception {
+		Path dataDir = new Path(args[0]);
+		expectedDir = new Path(dataDir, "expected");
+		write = args.length > 1 && args[1].equals("-write");
+
+		Path shortFasta = new Path(dataDir, "short.fasta");
+		Path shortFastq = new Path(dataDir, "short.fastq");
+		Path longFasta = new Path(dataDir, "long.fasta");
+
+		for (String[] options : OPTIONS) {
+			if (write && options.length > 0)
+				continue;
+
+			for (long splitSize : SPLIT_SIZES) {
+				check("short.fasta", new FASTAshortInputFileFormat(), shortFasta, splitSize, options);
+				check("short.fastq", new FASTQInputFileFormat(), shortFastq, splitSize, options);
+				check("long.fasta." + splitSize, new FASTAlongInputFileFormat(), longFasta, splitSize, options);
+			}
+		}
+
+		if (write)
+			return 0;
+
+		FileSystem fs = FileSystem.getLocal(getConf());
+		Path tmpDir = new Path(System.getProperty("java.io.tmpdir"), "fastdoop-" + System.nanoTime());
+
+		try {
+			checkIndexed(fs, shortFastq, new Path(tmpDir, "indexed.fastq"));
+			checkCompressed(fs, shortFasta, shortFastq, longFasta, tmpDir);
+		} finally {
+			fs.delete(tmpDir, true);
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		return (failures == 0) ? 0 : 1;
+	}
+
+	/*
+	 * Checks the records of a copy of file indexed by FASTQIndex, read both
+	 * by the input format and one at a time from the index
+	 */
+	private void checkIndexed(FileSystem fs, Path file, Path copy) throws Exception {
+		FileUtil.copy(fs, file, fs, copy, false, getConf());
+		FASTQIndex index = FASTQIndex.build(copy, getConf(), 4);
+
+		for (long splitSize : SPLIT_SIZES) {
+			check("short.fastq", new FASTQInputFileFormat(), copy, splitSize);
+			check("short.fastq", new FASTQInputFileFormat(), copy, splitSize, "record_aligned_splits=true");
+		}
+
+		List<String> records = new ArrayList<String>();
+		FSDataInputStream inputFile = fs.open(copy);
+
+		try {
+			for (long n = 0; n < index.getRecordCount(); n++)
+				records.add(format(index.getRecord(inputFile, n)));
+		} finally {
+			inputFile.close();
+		}
+
+		compare("short.fastq", records, copy + " (read from the index)");
+	}
+
+	/*
+	 * Checks the records of compressed copies of the files
+	 */
+	private void checkCompressed(FileSystem fs, Path shortFasta, Path shortFastq, Path longFasta, Path tmpDir)
+			throws Exception {
+
+		Path bgzf = new Path(tmpDir, "bgzf");
+		Path gzip = new Path(tmpDir, "gzip");
+		Path bzip2 = new Path(tmpDir, "bzip2");
+
+		for (Path file : new Path[] { shortFasta, shortFastq }) {
+			writeBGZF(fs, file, new Path(bgzf, file.getName() + ".gz"));
+			compress(fs, file, new Path(gzip, file.getName() + ".gz"));
+			compress(fs, file, new Path(bzip2, file.getName() + ".bz2"));
+		}
+
+		compress(fs, longFasta, new Path(bzip2, longFasta.getName() + ".bz2"));
+
+		for (long splitSize : SPLIT_SIZES) {
+			check("short.fasta", new BGZFFASTAshortInputFileFormat(), new Path(gzip, "short.fasta.gz"), splitSize);
+			check("short.fastq", new BGZFFASTQInputFileFormat(), new Path(gzip, "short.fastq.gz"), splitSize);
+
+			for (String[] options : OPTIONS) {
+				check("short.fasta", new BGZFFASTAshortInputFileFormat(), new Path(bgzf, "short.fasta.gz"), splitSize,
+						options);
+				check("short.fastq", new BGZFFASTQInputFileFormat(), new Path(bgzf, "short.fastq.gz"), splitSize,
+						options);
+				check("short.fasta", new FASTAshortInputFileFormat(), new Path(bzip2, "short.fasta.bz2"), splitSize,
+						options);
+				check("short.fastq", new FASTQInputFileFormat(), new Path(bzip2, "short.fastq.bz2"), splitSize,
+						options);
+			}
+
+			check("short.fasta", new BGZFFASTAshortInputFileFormat(), new Path(bzip2, "short.fasta.bz2"), splitSize);
+			check("short.fastq", new BGZFFASTQInputFileFormat(), new Path(bzip2, "short.fastq.bz2"), splitSize);
+		}
+
+		/*
+		 * Long sequences depend on the split size, and they are compared with
+		 * the ones read from a single split. Their key is the name of the
+		 * file, so the one of the uncompressed file is restored
+		 */
+		Path longFastaBzip2 = new Path(bzip2, "long.fasta.bz2");
+		List<String> records = new ArrayList<String>();
+
+		for (String record : read(new FASTAlongInputFileFormat(), longFastaBzip2, SPLIT_SIZES[0]))
+			records.add(longFasta.getName() + record.substring(longFastaBzip2.getName().length()));
+
+		compare("long.fasta." + SPLIT_SIZES[0], records, "FASTAlongInputFileFormat " + longFastaBzip2);
+	}
+
+	/*
+	 * Reads file with format and compares its records with the expected
+	 * ones, or writes them if they have not been written yet
+	 */
+	private void check(String expected, FileInputFormat<?, ?> format, Path file, long splitSize, String... options)
+			throws Exception {
+
+		String description = format.getClass().getSimpleName() + " " + file + " split size " + splitSize;
+
+		for (String option : options)
+			description += " " + option;
+
+		List<String> records;
+
+		try {
+			records = read(format, file, splitSize, options);
+		} catch (Exception e) {
+			checks++;
+			failures++;
+			System.out.println("FAILED " + description + ": " + e);
+			return;
+		}
+
+		if (write && written.add(expected)) {
+			FileSystem fs = FileSystem.getLocal(getConf()).getRaw();
+			OutputStream out = fs.create(new Path(expectedDir, expected + ".txt"), true);
+
+			try {
+				for (String record : records)
+					out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+			} finally {
+				out.close();
+			}
+
+			System.out.println("Written " + description);
+			return;
+		}
+
+		compare(expected, records, description);
+	}
+
+	/*
+	 * Compares records with the expected ones
+	 */
+	private void compare(String expected, List<String> records, String description) throws IOException {
+		FileSystem fs = FileSystem.getLocal(getConf());
+		List<String> expectedRecords = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(new Path(expectedDir, expected + ".txt")),
+				StandardCharsets.UTF_8));
+
+		try {
+			for (String record = in.readLine(); record != null; record = in.readLine())
+				expectedRecords.add(record);
+		} finally {
+			in.close();
+		}
+
+		checks++;
+
+		for (int i = 0; i < Math.max(records.size(), expectedRecords.size()); i++) {
+			String actual = (i < records.size()) ? records.get(i) : "<none>";
+			String wanted = (i < expectedRecords.size()) ? expectedRecords.get(i) : "<none>";
+
+			if (!actual.equals(wanted)) {
+				failures++;
+				System.out.println("FAILED " + description + ": record " + i + " is " + abbreviate(actual)
+						+ ", expected " + abbreviate(wanted));
+				return;
+			}
+		}
+
+		System.out.println("OK " + description + ": " + records.size() + " records");
+	}
+
+	private static String abbreviate(String record) {
+		return (record.length() > 120) ? record.substring(0, 120) + "..." : record;
+	}
+
+	/*
+	 * Returns the records of all the splits of file, formatted as strings.
+	 * The splits are serialized and read back before being read, as done
+	 * when they are sent to the tasks
+	 */
+	private List<String> read(FileInputFormat<?, ?> format, Path file, long splitSize, String... options)
+			throws Exception {
+
+		Configuration conf = new Configuration(getConf());
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, splitSize);
+		conf.setLong(FileInputFormat.SPLIT_MINSIZE, 1);
+
+		for (String option : options) {
+			String[] keyValue = option.split("=", 2);
+			conf.set(keyValue[0], keyValue[1]);
+		}
+
+		Job job = Job.getInstance(conf);
+		FileInputFormat.setInputPaths(job, file);
+		List<String> records = new ArrayList<String>();
+
+		for (InputSplit split : format.getSplits(job)) {
+			DataOutputBuffer out = new DataOutputBuffer();
+			((Writable) split).write(out);
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset(out.getData(), out.getLength());
+			InputSplit copy = (InputSplit) ReflectionUtils.newInstance(split.getClass(), conf);
+			((Writable) copy).readFields(in);
+
+			TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+			RecordReader<?, ?> reader = format.createRecordReader(copy, context);
+
+			try {
+				reader.initialize(copy, context);
+
+				while (reader.nextKeyValue())
+					records.add(format(reader.getCurrentValue()));
+			} finally {
+				reader.close();
+			}
+		}
+
+		return records;
+	}
+
+	/*
+	 * Formats a record as a line, made of its tab-separated fields
+	 */
+	private static String format(Object value) {
+		String line;
+
+		if (value instanceof Record) {
+			Record record = (Record) value;
+			line = record.getKey() + "\t" + record.getValue();
+		} else if (value instanceof QRecord) {
+			QRecord record = (QRecord) value;
+			line = record.getKey() + "\t" + record.getValue() + "\t" + record.getKey2() + "\t" + record.getQuality();
+		} else {
+			PartialSequence sequence = (PartialSequence) value;
+			line = sequence.getKey() + "\t" + sequence.getValue() + "\t" + sequence.getBytesToProcess();
+		}
+
+		return line.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	/*
+	 * Compresses file with the codec given by the extension of dest
+	 */
+	private void compress(FileSystem fs, Path file, Path dest) throws IOException {
+		CompressionCodec codec = new CompressionCodecFactory(getConf()).getCodec(dest);
+		InputStream in = fs.open(file);
+		OutputStream out = codec.createOutputStream(fs.create(dest, true));
+
+		try {
+			IOUtils.copyBytes(in, out, 4096);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/*
+	 * Compresses file in BGZF blocks of BGZF_BLOCK_SIZE uncompressed bytes,
+	 * as done by bgzip
+	 */
+	private void writeBGZF(FileSystem fs, Path file, Path dest) throws IOException {
+		byte[] content = new byte[(int) fs.getFileStatus(file).getLen()];
+		FSDataInputStream in = fs.open(file);
+
+		try {
+			in.readFully(0, content);
+		} finally {
+			in.close();
+		}
+
+		FSDataOutputStream out = fs.create(dest, true);
+
+		try {
+			for (int start = 0; start < content.length; start += BGZF_BLOCK_SIZE)
+				writeBGZFBlock(out, content, start, Math.min(BGZF_BLOCK_SIZE, content.length - start));
+
+			writeBGZFBlock(out, content, 0, 0);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Writes a BGZF block holding length bytes of content, starting at
+	 * offset start. An empty block marks the end of the file
+	 */
+	private static void writeBGZFBlock(FSDataOutputStream out, byte[] content, int start, int length)
+			throws IOException {
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(content, start, length);
+		deflater.finish();
+		byte[] data = new byte[length + 64];
+		int dataLength = 0;
+
+		while (!deflater.finished())
+			dataLength += deflater.deflate(data, dataLength, data.length - dataLength);
+
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(content, start, length);
+
+		byte[] header = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 };
+		out.write(header);
+		writeShort(out, header.length + 2 + dataLength + 8 - 1);
+		out.write(data, 0, dataLength);
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, length);
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		writeShort(out, value & 0xffff);
+		writeShort(out, (value >>> 16) & 0xffff);
+	}
+}
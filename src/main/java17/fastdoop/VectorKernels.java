@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the {@code ByteScanner} kernels, based on the Vector API
+ * ({@code jdk.incubator.vector}).
+ *
+ * The Vector API is an incubator module on Java 17 and later, and it is not
+ * resolved unless the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}. The kernels are enabled only if
+ * the module is available and the preferred vector shape of the platform
+ * holds at least 16 bytes. Otherwise, {@code ByteScanner} keeps using its
+ * scalar code.
+ */
+final class VectorKernels {
+
+	/*
+	 * True, if the kernels can be used
+	 */
+	static final boolean ENABLED = isVectorApiAvailable();
+
+	private VectorKernels() {
+	}
+
+	static int indexOf(byte[] buffer, int from, int to, byte delimiter) {
+		return Impl.indexOf(buffer, from, to, delimiter);
+	}
+
+	static int copyWithoutNewlines(byte[] src, int from, int to, byte[] dest, int destPos) {
+		return Impl.copyWithoutNewlines(src, from, to, dest, destPos);
+	}
+
+	/*
+	 * The classes of jdk.incubator.vector must not be loaded before checking
+	 * that the module is available, so they are only used by Impl
+	 */
+	private static boolean isVectorApiAvailable() {
+
+		if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+			return false;
+
+		try {
+			return Impl.SPECIES.length() >= 16;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static final class Impl {
+
+		static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+		static int indexOf(byte[] buffer, int from, int to, byte delimiter) {
+
+			int pos = from;
+
+			for (int bound = to - SPECIES.length(); pos <= bound; pos += SPECIES.length()) {
+
+				VectorMask<Byte> match = ByteVector.fromArray(SPECIES, buffer, pos).eq(delimiter);
+
+				if (match.anyTrue())
+					return pos + match.firstTrue();
+			}
+
+			for (; pos < to; pos++) {
+				if (buffer[pos] == delimiter)
+					return pos;
+			}
+
+			return -1;
+		}
+
+		static int copyWithoutNewlines(byte[] src, int from, int to, byte[] dest, int destPos) {
+
+			int pos = from;
+			int copied = destPos;
+
+			/*
+			 * Each vector is stored as a whole, but only the bytes preceding
+			 * its first newline are kept: the following ones are overwritten
+			 * by the next store, which starts just after that newline
+			 */
+			for (int bound = to - SPECIES.length(); pos <= bound;) {
+
+				ByteVector bytes = ByteVector.fromArray(SPECIES, src, pos);
+				VectorMask<Byte> newlines = bytes.eq((byte) '\n');
+				int length = newlines.anyTrue() ? newlines.firstTrue() : SPECIES.length();
+
+				if (copied + SPECIES.length() <= dest.length)
+					bytes.intoArray(dest, copied);
+				else
+					System.arraycopy(src, pos, dest, copied, length);
+
+				copied += length;
+				pos += (length < SPECIES.length()) ? length + 1 : length;
+			}
+
+			for (; pos < to; pos++) {
+				if (src[pos] != '\n')
+					dest[copied++] = src[pos];
+			}
+
+			return copied - destPos;
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop
+
+import java.io.{BufferedReader, InputStreamReader}
+import java.nio.charset.StandardCharsets
+
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * The records of a FAI (fasta index) file, sorted by their offset in the FASTA file, as they are listed in the index.
+ *
+ * The records overlapping a range of bytes of the FASTA file are found by binary search, so that each input split
+ * does not need to scan the whole index.
+ *
+ * @param records the records of the index, in order
+ */
+class FastaIndex(val records: Array[FAIRecord]) {
+  //Offsets of the final character of each sequence. They are non-decreasing, as sequences follow each other in the
+  //FASTA file
+  private val ends = records.map(_.end)
+
+  //Records by sequence ID, built only when sequences are looked up by ID
+  private lazy val byId = records.map(r => r.id -> r).toMap
+
+  /**
+   * The record of the sequence with the given ID, if any
+   */
+  def get(id: String): Option[FAIRecord] =
+    byId.get(id)
+
+  /**
+   * The records of the sequences having at least one byte between startByte and endByte (both inclusive)
+   */
+  def overlapping(startByte: Long, endByte: Long): Array[FAIRecord] = {
+    //Index of the first record ending at startByte or later
+    var low = 0
+    var high = ends.length
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (ends(mid) < startByte) low = mid + 1 else high = mid
+    }
+
+    var last = low
+    while (last < records.length && records(last).start <= endByte) last += 1
+
+    records.slice(low, last)
+  }
+}
+
+object FastaIndex {
+  //Number of indexes kept in memory by each JVM
+  private val CACHE_SIZE = 8
+
+  private val cache = new java.util.LinkedHashMap[String, FastaIndex](CACHE_SIZE, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[String, FastaIndex]): Boolean =
+      size() > CACHE_SIZE
+  }
+
+  /**
+   * The index of the FASTA file at path, read from its .fai file.
+   *
+   * Indexes are cached, so that a .fai file is parsed only once by the same JVM, as long as it is not modified.
+   *
+   * @param path Path to the FASTA file (not to the .fai file)
+   * @param conf
+   * @throws IOException
+   */
+  def load(path: Path, conf: Configuration): FastaIndex = {
+    val faiPath = new Path(path.toString + ".fai")
+    val fs = faiPath.getFileSystem(conf)
+    val status = fs.getFileStatus(faiPath)
+    val key = s"${fs.makeQualified(faiPath)}\t${status.getModificationTime}\t${status.getLen}"
+
+    cache.synchronized {
+      val cached = cache.get(key)
+      if (cached != null) return cached
+    }
+
+    val index = read(faiPath, conf)
+    cache.synchronized {
+      cache.put(key, index)
+    }
+    index
+  }
+
+  /**
+   * Read a fai file (such as the one generated by 'samtools faidx' or 'seqkit faidx')
+   *
+   * @param faiPath Path to the fai file
+   * @param conf
+   * @throws IOException
+   */
+  def read(faiPath: Path, conf: Configuration): FastaIndex = {
+    val reader = new BufferedReader(new InputStreamReader(faiPath.getFileSystem(conf).open(faiPath),
+      StandardCharsets.UTF_8))
+    try {
+      val records = new ArrayBuffer[FAIRecord]
+      var line = reader.readLine()
+      while (line != null) {
+        if (!line.isEmpty) {
+          val spl = line.split("\t")
+          records += FAIRecord(spl(0), spl(1).toLong, spl(2).toLong, spl(3).toInt, spl(4).toInt)
+        }
+        line = reader.readLine()
+      }
+      new FastaIndex(records.toArray)
+    } finally {
+      reader.close()
+    }
+  }
+}
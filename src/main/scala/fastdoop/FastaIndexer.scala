@@ -0,0 +1,360 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop
+
+import java.io.{IOException, OutputStreamWriter}
+import java.nio.charset.StandardCharsets
+
+import org.apache.hadoop.conf.{Configuration, Configured}
+import org.apache.hadoop.fs.{FSDataInputStream, Path}
+import org.apache.hadoop.io.{LongWritable, NullWritable, Text}
+import org.apache.hadoop.io.compress.CompressionCodecFactory
+import org.apache.hadoop.mapreduce._
+import org.apache.hadoop.mapreduce.lib.input.{FileInputFormat, FileSplit}
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat
+import org.apache.hadoop.util.{Tool, ToolRunner}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * MapReduce job building the .fai index of FASTA files, as 'samtools faidx' does, so that they can be read by
+ * [[IndexedFastaFormat]].
+ *
+ * Each mapper scans the lines starting in its input split, and summarizes the part of each sequence found there
+ * (number of bases, length of the first and of the last line, whether the other lines have the same length as the
+ * first one). A single reducer receives these summaries sorted by offset, merges the ones of sequences crossing
+ * several splits, and writes the index next to each input file, as `<file>.fai`. The lines of each sequence,
+ * except the last one, must have the same length.
+ *
+ * Usage: FastaIndexer input_file...
+ *
+ * @see [[FAIRecord]]
+ */
+class FastaIndexer extends Configured with Tool {
+
+  override def run(args: Array[String]): Int = {
+    if (args.isEmpty) {
+      System.err.println("Usage: FastaIndexer input_file...")
+      return 1
+    }
+
+    if (FastaIndexer.buildIndex(getConf, args.map(new Path(_)): _*)) 0 else 1
+  }
+}
+
+object FastaIndexer {
+
+  //Size of the chunks read by the mappers
+  private val READ_SIZE = 1024 * 1024
+
+  //Header lines are read up to this many bytes, which is enough to find the sequence ID
+  private val MAX_ID_LENGTH = 64 * 1024
+
+  def main(args: Array[String]): Unit =
+    System.exit(ToolRunner.run(new FastaIndexer, args))
+
+  /**
+   * Builds the .fai index of each of the given FASTA files, and waits for the job to complete.
+   *
+   * @param conf the configuration of the job
+   * @param paths paths of uncompressed FASTA files
+   * @return true if the job succeeded
+   */
+  def buildIndex(conf: Configuration, paths: Path*): Boolean = {
+    val job = Job.getInstance(conf, "FASTdoop .fai index")
+    job.setJarByClass(classOf[FastaIndexer])
+    FileInputFormat.setInputPaths(job, paths: _*)
+    job.setInputFormatClass(classOf[SplitInputFormat])
+    job.setMapperClass(classOf[IndexMapper])
+    job.setReducerClass(classOf[IndexReducer])
+    job.setNumReduceTasks(1)
+    job.setMapOutputKeyClass(classOf[Text])
+    job.setMapOutputValueClass(classOf[Text])
+    job.setOutputFormatClass(classOf[NullOutputFormat[NullWritable, NullWritable]])
+    job.waitForCompletion(true)
+  }
+
+  /**
+   * The part of a sequence made of the lines starting in an input split. Line lengths are in bases, while widths
+   * also count the line terminator.
+   *
+   * @param id the sequence ID, if the header line of the sequence starts in the split, otherwise null
+   * @param dataStart offset of the first base of the sequence, if its header line starts in the split
+   * @param bases number of bases
+   * @param lines number of lines holding bases
+   * @param uniform true, if the lines, except the last one, have the same length and width as the first one
+   * @param trailingBlank true, if empty lines follow the last line holding bases
+   */
+  private[fastdoop] case class SequencePart(id: String, dataStart: Long, bases: Long, lines: Long,
+                                            firstLength: Int, firstWidth: Int, lastLength: Int, lastWidth: Int,
+                                            uniform: Boolean, trailingBlank: Boolean) {
+
+    def toLine: String =
+      Seq(if (id == null) "-" else "+" + id, dataStart, bases, lines, firstLength, firstWidth, lastLength, lastWidth,
+        uniform, trailingBlank).mkString("\t")
+
+    /** Adds a line of the given length and width, holding at least one base */
+    def addLine(length: Int, width: Int, offset: Long): SequencePart = {
+      if (trailingBlank) {
+        throw new IOException(s"Empty line inside a sequence, before offset $offset")
+      }
+
+      if (lines == 0) {
+        copy(bases = length, lines = 1, firstLength = length, firstWidth = width, lastLength = length,
+          lastWidth = width)
+      } else {
+        copy(bases = bases + length, lines = lines + 1, lastLength = length, lastWidth = width,
+          uniform = uniform && lastLength == firstLength && lastWidth == firstWidth)
+      }
+    }
+
+    /** Appends the part of the same sequence found in the next split(s) */
+    def merge(next: SequencePart): SequencePart = {
+      if (next.lines == 0) {
+        copy(trailingBlank = trailingBlank || next.trailingBlank)
+      } else if (lines == 0) {
+        if (trailingBlank) {
+          throw new IOException(s"Empty line inside sequence '$id'")
+        }
+        next.copy(id = id, dataStart = dataStart)
+      } else {
+        if (trailingBlank) {
+          throw new IOException(s"Empty line inside sequence '$id'")
+        }
+        copy(bases = bases + next.bases, lines = lines + next.lines, lastLength = next.lastLength,
+          lastWidth = next.lastWidth, trailingBlank = next.trailingBlank,
+          uniform = uniform && lastLength == firstLength && lastWidth == firstWidth &&
+            (next.lines == 1 || (next.uniform && next.firstLength == firstLength && next.firstWidth == firstWidth)))
+      }
+    }
+
+    def toFAIRecord: FAIRecord = {
+      if (!uniform || lastLength > firstLength) {
+        throw new IOException(s"Different line length in sequence '$id'")
+      }
+      FAIRecord(id, bases, dataStart, firstLength, firstWidth)
+    }
+  }
+
+  private[fastdoop] object SequencePart {
+    def parse(line: String): SequencePart = {
+      val f = line.split("\t", -1)
+      SequencePart(if (f(0) == "-") null else f(0).substring(1), f(1).toLong, f(2).toLong, f(3).toLong, f(4).toInt,
+        f(5).toInt, f(6).toInt, f(7).toInt, f(8).toBoolean, f(9).toBoolean)
+    }
+  }
+
+  /**
+   * Input format returning a single record per input split, so that each mapper scans its split by itself.
+   * Compressed files cannot be indexed.
+   */
+  class SplitInputFormat extends FileInputFormat[LongWritable, NullWritable] {
+    override def createRecordReader(split: InputSplit, context: TaskAttemptContext)
+    : RecordReader[LongWritable, NullWritable] = new RecordReader[LongWritable, NullWritable] {
+      private var start = -1L
+      private var done = false
+
+      override def initialize(split: InputSplit, context: TaskAttemptContext): Unit = {
+        val fileSplit = split.asInstanceOf[FileSplit]
+        if (new CompressionCodecFactory(context.getConfiguration).getCodec(fileSplit.getPath) != null) {
+          throw new IOException(s"Compressed files cannot be indexed: ${fileSplit.getPath}")
+        }
+        start = fileSplit.getStart
+      }
+
+      override def nextKeyValue(): Boolean =
+        if (done) false else { done = true; true }
+
+      override def getCurrentKey: LongWritable = new LongWritable(start)
+
+      override def getCurrentValue: NullWritable = NullWritable.get()
+
+      override def getProgress: Float = if (done) 1 else 0
+
+      override def close(): Unit = {}
+    }
+  }
+
+  /**
+   * Emits the parts of the sequences made of the lines starting in the input split, keyed by the path of the file
+   * and the offset of the split.
+   */
+  class IndexMapper extends Mapper[LongWritable, NullWritable, Text, Text] {
+
+    override def map(key: LongWritable, value: NullWritable,
+                     context: Mapper[LongWritable, NullWritable, Text, Text]#Context): Unit = {
+      val split = context.getInputSplit.asInstanceOf[FileSplit]
+      val path = split.getPath
+      val fs = path.getFileSystem(context.getConfiguration)
+      val in = fs.open(path)
+
+      try {
+        val parts = scanSplit(new ChunkReader(in, fs.getFileStatus(path).getLen), split.getStart,
+          split.getStart + split.getLength)
+
+        if (parts.nonEmpty) {
+          context.write(new Text(f"${path.toString}\t${split.getStart}%020d"), new Text(parts.map(_.toLine)
+            .mkString("\n")))
+        }
+      } finally {
+        in.close()
+      }
+    }
+  }
+
+  /**
+   * Merges the parts of the sequences of each file, which are received sorted by offset, and writes the .fai index
+   * of the file.
+   */
+  class IndexReducer extends Reducer[Text, Text, NullWritable, NullWritable] {
+    private var currentFile: String = null
+    private var current: SequencePart = null
+    private val records = new ArrayBuffer[FAIRecord]()
+
+    override def reduce(key: Text, values: java.lang.Iterable[Text],
+                        context: Reducer[Text, Text, NullWritable, NullWritable]#Context): Unit = {
+      val file = key.toString.substring(0, key.toString.lastIndexOf('\t'))
+      if (file != currentFile) {
+        writeIndex(context.getConfiguration)
+        currentFile = file
+      }
+
+      val it = values.iterator()
+      while (it.hasNext) {
+        for (line <- it.next().toString.split("\n")) {
+          val part = SequencePart.parse(line)
+          if (part.id != null) {
+            if (current != null) records += current.toFAIRecord
+            current = part
+          } else if (current != null) {
+            current = current.merge(part)
+          } else if (part.lines > 0) {
+            throw new IOException(s"$currentFile does not start with a header line")
+          }
+        }
+      }
+    }
+
+    override def cleanup(context: Reducer[Text, Text, NullWritable, NullWritable]#Context): Unit =
+      writeIndex(context.getConfiguration)
+
+    private def writeIndex(conf: Configuration): Unit = {
+      if (currentFile == null) return
+      if (current != null) records += current.toFAIRecord
+
+      val faiPath = new Path(currentFile + ".fai")
+      val out = new OutputStreamWriter(faiPath.getFileSystem(conf).create(faiPath, true), StandardCharsets.UTF_8)
+      try {
+        for (record <- records) {
+          out.write(record.toFaiLine)
+          out.write('\n')
+        }
+      } finally {
+        out.close()
+      }
+
+      records.clear()
+      current = null
+      currentFile = null
+    }
+  }
+
+  /**
+   * Random access to the bytes of a file, through positioned reads of READ_SIZE bytes.
+   */
+  private[fastdoop] class ChunkReader(in: FSDataInputStream, val length: Long) {
+    private val chunk = new Array[Byte](READ_SIZE)
+    private var chunkStart = 0L
+    private var chunkLength = 0
+
+    def apply(pos: Long): Byte = {
+      if (pos < chunkStart || pos >= chunkStart + chunkLength) fill(pos)
+      chunk((pos - chunkStart).toInt)
+    }
+
+    /** Returns the offset of the first '\n' following pos, or the length of the file */
+    def lineEnd(pos: Long): Long = {
+      var from = pos
+      while (from < length) {
+        if (from < chunkStart || from >= chunkStart + chunkLength) fill(from)
+        val end = chunkStart + chunkLength
+        val i = ByteScanner.indexOf(chunk, (from - chunkStart).toInt, chunkLength, '\n'.toByte)
+        if (i >= 0) return chunkStart + i
+        from = end
+      }
+      length
+    }
+
+    def read(pos: Long, length: Int): Array[Byte] = {
+      val bytes = new Array[Byte](length)
+      in.readFully(pos, bytes)
+      bytes
+    }
+
+    private def fill(pos: Long): Unit = {
+      chunkStart = pos
+      chunkLength = math.min(READ_SIZE.toLong, length - pos).toInt
+      in.readFully(pos, chunk, 0, chunkLength)
+    }
+  }
+
+  /**
+   * Returns the parts of the sequences made of the lines starting between the offsets start (inclusive) and end
+   * (exclusive) of a file. Lines crossing end are read in full.
+   */
+  private[fastdoop] def scanSplit(file: ChunkReader, start: Long, end: Long): Seq[SequencePart] = {
+    val parts = new ArrayBuffer[SequencePart]()
+    var part: SequencePart = null
+    var pos = start
+
+    //A line starting before the split belongs to the previous one
+    if (pos > 0 && file(pos - 1) != '\n') {
+      pos = file.lineEnd(pos) + 1
+    }
+
+    while (pos < math.min(end, file.length)) {
+      val lineEnd = file.lineEnd(pos)
+      val width = (if (lineEnd < file.length) lineEnd + 1 else lineEnd) - pos
+      val length = if (lineEnd > pos && file(lineEnd - 1) == '\r') lineEnd - pos - 1 else lineEnd - pos
+
+      if (file(pos) == '>') {
+        if (part != null) parts += part
+        val header = new String(file.read(pos + 1, math.min(lineEnd - pos - 1, MAX_ID_LENGTH.toLong).toInt),
+          StandardCharsets.UTF_8).trim
+        val id = header.split("\\s", 2)(0)
+        part = SequencePart(id, math.min(lineEnd + 1, file.length), 0, 0, 0, 0, 0, 0, uniform = true,
+          trailingBlank = false)
+      } else {
+        if (part == null) {
+          part = SequencePart(null, -1, 0, 0, 0, 0, 0, 0, uniform = true, trailingBlank = false)
+        }
+        if (length == 0) {
+          part = part.copy(trailingBlank = true)
+        } else {
+          part = part.addLine(length.toInt, width.toInt, pos)
+        }
+      }
+
+      pos = lineEnd + 1
+    }
+
+    if (part != null) parts += part
+    parts
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop
+
+import java.io.Closeable
+
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.{FSDataInputStream, Path}
+
+/**
+ * A region of a sequence, as in samtools: 1-based, with both ends included.
+ *
+ * @param id Sequence ID
+ * @param start position of the first bp of the region
+ * @param end position of the final bp of the region
+ */
+case class Region(id: String, start: Long, end: Long) {
+  override def toString: String = s"$id:$start-$end"
+}
+
+object Region {
+  /**
+   * Parses a region in the format used by samtools, i.e. "chr7:55,019,017-55,211,628", "chr7:55019017" (up to the
+   * end of the sequence) or "chr7" (the whole sequence)
+   */
+  def parse(region: String): Region = {
+    val colon = region.lastIndexOf(':')
+    if (colon < 0) return Region(region, 1, Long.MaxValue)
+
+    val range = region.substring(colon + 1).replace(",", "")
+    val dash = range.indexOf('-')
+    try {
+      if (dash < 0) Region(region.substring(0, colon), range.toLong, Long.MaxValue)
+      else Region(region.substring(0, colon), range.substring(0, dash).toLong, range.substring(dash + 1).toLong)
+    } catch {
+      case _: NumberFormatException => throw new IllegalArgumentException(s"Invalid region: $region")
+    }
+  }
+}
+
+/**
+ * Random access to regions of a FASTA file with an accompanying .fai index file.
+ *
+ * The byte range of each region is computed from the line geometry of its [[FAIRecord]], so that a region is read
+ * with a single positioned read, and its bases are returned without the line terminators. Batches of regions are
+ * sorted by offset, and regions closer than a given gap are read together.
+ *
+ * As the index is cached by [[FastaIndex]], opening several readers for the same file (e.g., one for each partition
+ * of a Spark job) parses the .fai file only once per JVM.
+ *
+ * @param path Path to the FASTA file
+ * @param conf
+ */
+class FastaRegionReader(path: Path, conf: Configuration) extends Closeable {
+  private val index = FastaIndex.load(path, conf)
+
+  private val inputFile: FSDataInputStream = path.getFileSystem(conf).open(path)
+
+  /**
+   * The bases of a region in the format used by samtools, e.g. "chr7:55,019,017-55,211,628"
+   */
+  def fetch(region: String): String =
+    new String(fetch(Region.parse(region)), "US-ASCII")
+
+  /**
+   * The bases of region, without line terminators. Regions reaching past the end of their sequence are truncated
+   *
+   * @throws IllegalArgumentException if the sequence of the region is not in the index
+   */
+  def fetch(region: Region): Array[Byte] =
+    fetchAll(Seq(region), 0).head
+
+  /**
+   * The bases of each region, in the same order. Regions whose byte ranges are at most maxGap bytes apart are read
+   * with a single positioned read
+   *
+   * @throws IllegalArgumentException if the sequence of a region is not in the index
+   */
+  def fetchAll(regions: Seq[Region], maxGap: Long = FastaRegionReader.DEFAULT_MAX_GAP): Seq[Array[Byte]] = {
+    val ranges = regions.map(toByteRange).toArray
+    val results = new Array[Array[Byte]](ranges.length)
+
+    //Non-empty ranges by offset, grouped while the next one starts within maxGap bytes of the current group
+    val sorted = ranges.indices.filter(i => ranges(i).length > 0).sortBy(i => ranges(i).from)
+    var i = 0
+    while (i < sorted.size) {
+      val from = ranges(sorted(i)).from
+      var to = ranges(sorted(i)).to
+      var j = i + 1
+      while (j < sorted.size && ranges(sorted(j)).from - to <= maxGap &&
+        math.max(to, ranges(sorted(j)).to) - from <= FastaRegionReader.MAX_READ_SIZE) {
+        to = math.max(to, ranges(sorted(j)).to)
+        j += 1
+      }
+
+      val bytes = new Array[Byte]((to - from).toInt)
+      inputFile.readFully(from, bytes)
+      for (k <- i until j) results(sorted(k)) = ranges(sorted(k)).bases(bytes, from)
+      i = j
+    }
+
+    for (k <- results.indices if results(k) == null) results(k) = Array.emptyByteArray
+    results
+  }
+
+  /**
+   * The byte range of a region in the FASTA file, with the region clamped to the length of its sequence
+   */
+  private def toByteRange(region: Region): ByteRange = {
+    val record = index.get(region.id).getOrElse(
+      throw new IllegalArgumentException(s"Unknown sequence '${region.id}' in $path"))
+
+    //0-based positions of the first and final bases
+    val first = math.max(region.start, 1) - 1
+    val last = math.min(region.end, record.length) - 1
+    if (last < first) return ByteRange(record, 0, 0, 0)
+    if (last - first + 1 > FastaRegionReader.MAX_READ_SIZE)
+      throw new IllegalArgumentException(s"Region $region is too large")
+
+    ByteRange(record, first, offsetOf(record, first), offsetOf(record, last) + 1)
+  }
+
+  private def offsetOf(record: FAIRecord, position: Long): Long =
+    record.start + (position / record.bpsPerLine) * record.bytesPerLine + position % record.bpsPerLine
+
+  /**
+   * The bytes of a region between offsets from (inclusive) and to (exclusive) of the file, starting at the 0-based
+   * position first of the sequence of record
+   */
+  private case class ByteRange(record: FAIRecord, first: Long, from: Long, to: Long) {
+    def length: Long = to - from
+
+    /**
+     * The bases of this range, stored in bytes starting from the offset bytesStart of the file
+     */
+    def bases(bytes: Array[Byte], bytesStart: Long): Array[Byte] = {
+      val bps = record.bpsPerLine
+      val result = new Array[Byte](length.toInt)
+      var size = 0
+      var pos = first
+      var offset = from
+
+      //Each line is copied up to its terminator, whose length is bytesPerLine - bpsPerLine
+      while (offset < to) {
+        val n = math.min(bps - pos % bps, to - offset).toInt
+        System.arraycopy(bytes, (offset - bytesStart).toInt, result, size, n)
+        size += n
+        pos += n
+        offset += n + (record.bytesPerLine - bps)
+      }
+      java.util.Arrays.copyOf(result, size)
+    }
+  }
+
+  override def close(): Unit =
+    inputFile.close()
+}
+
+object FastaRegionReader {
+  //Regions whose byte ranges are at most this number of bytes apart are read together, by default
+  val DEFAULT_MAX_GAP: Long = 64 * 1024
+
+  //Maximum number of bytes read at once
+  private val MAX_READ_SIZE: Long = Int.MaxValue - 8
+}
@@ -18,13 +18,24 @@
 
 package fastdoop
 
+import java.util
+
+import org.apache.hadoop.fs.{BlockLocation, FileStatus, Path}
 import org.apache.hadoop.io.Text
-import org.apache.hadoop.mapreduce.{InputSplit, RecordReader, TaskAttemptContext}
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat
+import org.apache.hadoop.mapreduce.{InputSplit, JobContext, RecordReader, TaskAttemptContext}
+import org.apache.hadoop.mapreduce.lib.input.{FileInputFormat, FileSplit}
 
 /**
  * Hadoop input format for FASTA files with an accompanying .fai index file.
  *
+ * The index of each file is parsed only once, when planning the splits of the job, and every split is given the
+ * records of the sequences overlapping it, as an [[IndexedFastaSplit]].
+ *
+ * Unless the sequence_aware_splits configuration parameter is set to false, split boundaries are chosen using the
+ * index: sequences shorter than the split size are packed whole into splits, while longer ones are cut only at the
+ * beginning of a line, in parts of about the split size. Otherwise, splits have the boundaries chosen by
+ * FileInputFormat, at arbitrary offsets.
+ *
  * @see [[IndexedFastaReader]]
  *
  * @author Johan Nyström-Persson
@@ -34,4 +45,101 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat
 class IndexedFastaFormat extends FileInputFormat[Text, PartialSequence] {
   override def createRecordReader(split: InputSplit, context: TaskAttemptContext): RecordReader[Text, PartialSequence] =
     new IndexedFastaReader()
+
+  override def getSplits(job: JobContext): util.List[InputSplit] = {
+    if (!job.getConfiguration.getBoolean("sequence_aware_splits", true)) {
+      return indexSplits(job, super.getSplits(job))
+    }
+
+    val minSize = math.max(getFormatMinSplitSize, FileInputFormat.getMinSplitSize(job))
+    val maxSize = FileInputFormat.getMaxSplitSize(job)
+    val splits = new util.ArrayList[InputSplit]()
+
+    val files = listStatus(job)
+    for (i <- 0 until files.size()) {
+      val file = files.get(i)
+      val splitSize = computeSplitSize(file.getBlockSize, minSize, maxSize)
+      planSplits(job, file, splitSize, splits)
+    }
+
+    job.getConfiguration.setLong(FileInputFormat.NUM_INPUT_FILES, files.size())
+    splits
+  }
+
+  /**
+   * Adds to splits the splits of a file, with boundaries placed according to its index
+   */
+  private def planSplits(job: JobContext, file: FileStatus, splitSize: Long, splits: util.List[InputSplit]): Unit = {
+    val path = file.getPath
+    val length = file.getLen
+    if (length == 0) return
+
+    val index = FastaIndex.load(path, job.getConfiguration)
+    val blocks = path.getFileSystem(job.getConfiguration).getFileBlockLocations(file, 0, length)
+    //The current split can grow up to this size before being closed, to avoid creating tiny splits
+    val maxSplitSize = (splitSize * IndexedFastaFormat.SPLIT_SLOP).toLong
+
+    var splitStart = 0L
+
+    def addSplit(end: Long): Unit = {
+      splits.add(new IndexedFastaSplit(path, splitStart, end - splitStart,
+        blocks(getBlockIndex(blocks, splitStart)).getHosts, index.overlapping(splitStart, end - 1)))
+      splitStart = end
+    }
+
+    for (record <- index.records) {
+      val fitsInSplit = record.end + 1 - record.start <= maxSplitSize
+
+      //The sequence does not fit in the current split, which is closed just before it unless it is empty. Sequences
+      //larger than a split rather fill the current split, if it is less than half full
+      if (record.end + 1 - splitStart > maxSplitSize && record.start > splitStart &&
+        (fitsInSplit || record.start - splitStart >= splitSize / 2)) {
+        addSplit(record.start)
+      }
+
+      //Sequences larger than a split are cut at the beginning of a line
+      var cutting = record.bytesPerLine > 0
+      while (cutting && record.end + 1 - splitStart > maxSplitSize) {
+        val cutLine = (splitStart + splitSize - record.start) / record.bytesPerLine
+        val cut = record.start + cutLine * record.bytesPerLine
+
+        //With lines longer than the split size, the cut is moved to the next line
+        val nextLine = record.start + ((splitStart - record.start) / record.bytesPerLine + 1) * record.bytesPerLine
+        val boundary = if (cut > splitStart) cut else nextLine
+
+        if (boundary > record.end) cutting = false else addSplit(boundary)
+      }
+    }
+
+    addSplit(length)
+  }
+
+  /**
+   * Gives every split the FAI records of the sequences overlapping it
+   */
+  private def indexSplits(job: JobContext, splits: util.List[InputSplit]): util.List[InputSplit] = {
+    val indexedSplits = new util.ArrayList[InputSplit](splits.size())
+    var currPath: Path = null
+    var index: FastaIndex = null
+
+    for (i <- 0 until splits.size()) {
+      val split = splits.get(i).asInstanceOf[FileSplit]
+
+      //Splits of the same file are contiguous, so each index is looked up only once
+      if (split.getPath != currPath) {
+        currPath = split.getPath
+        index = FastaIndex.load(currPath, job.getConfiguration)
+      }
+
+      val records = index.overlapping(split.getStart, split.getStart + split.getLength - 1)
+      indexedSplits.add(new IndexedFastaSplit(split.getPath, split.getStart, split.getLength, split.getLocations,
+        records))
+    }
+    indexedSplits
+  }
+}
+
+object IndexedFastaFormat {
+  //As in FileInputFormat, splits can be up to 10% larger than the split size
+  private val SPLIT_SLOP = 1.1
 }
@@ -18,14 +18,12 @@
 
 package fastdoop
 
-import org.apache.hadoop.conf.Configuration
-import org.apache.hadoop.fs.Path
+import java.nio.ByteBuffer
+
 import org.apache.hadoop.io.Text
 import org.apache.hadoop.mapreduce.lib.input.FileSplit
 import org.apache.hadoop.mapreduce.{InputSplit, RecordReader, TaskAttemptContext}
 
-import scala.io.Source
-
 /**
  * FAI (fasta index) record.
  *
@@ -42,8 +40,13 @@ import scala.io.Source
  * @param bytesPerLine bytes per line
  */
 case class FAIRecord(id: String, length: Long, start: Long, bpsPerLine: Int, bytesPerLine: Int) {
-  /** byte offset of the final character in this sequence */
-  val end = (start + (length / bpsPerLine) * bytesPerLine + (length % bpsPerLine)) - 1
+  /** byte offset of the final character in this sequence (start - 1 for empty sequences, having no lines) */
+  val end =
+    if (bpsPerLine == 0) start - 1
+    else (start + (length / bpsPerLine) * bytesPerLine + (length % bpsPerLine)) - 1
+
+  /** This record as a line of a FAI file, without the ending newline */
+  def toFaiLine: String = s"$id\t$length\t$start\t$bpsPerLine\t$bytesPerLine"
 }
 
 /**
@@ -58,7 +61,8 @@ case class FAIRecord(id: String, length: Long, start: Long, bpsPerLine: Int, byt
  *
  * Partial sequences are read together with (k-1) bps from the next part to ensure that full k-mers can be processed.
  *
- * The reader for every split must stream the FAI file. Thus, it is not recommended to use this reader for e.g. short
+ * The FAI records of the sequences in every split are found when planning the splits (see [[IndexedFastaSplit]]), or
+ * by binary search in an index parsed once per JVM. Even so, it is not recommended to use this reader for e.g. short
  * reads, or when the maximum size of a sequence is relatively small.
  * [[ShortReadsRecordReader]] and [[FASTQReadsRecordReader]] are better suited to such a task.
  * For reading a single long sequence without a FAI index, [[LongReadsRecordReader]] can be used instead.
@@ -80,7 +84,8 @@ class IndexedFastaReader extends RecordReader[Text, PartialSequence] {
 
   private var currValue: PartialSequence = null
 
-  private var myInputSplitBuffer = Array[Byte]()
+  //The content of the split, either loaded in the heap or memory-mapped, and released when the reader is closed
+  private var myInputSplitBuffer: SegmentedBuffer = null
 
   private var k = 0
 
@@ -88,27 +93,9 @@ class IndexedFastaReader extends RecordReader[Text, PartialSequence] {
    * FAIRecords corresponding to sequences that we have yet to read
    */
   private var faiRecords: Iterator[FAIRecord] = Iterator.empty
-  private var faiSource: Source = null
 
-  private var sizeBuffer1 = 0
-  private var sizeBuffer2 = 0
-
-  /**
-   * Read a fai file (such as the one generated by 'seqkit faidx') and return the records
-   *
-   * @param path Path to the fai file
-   * @param job
-   * @return an iterator with the FAIRecords in this file, in order
-   * @throws IOException
-   */
-  private def readFastaIndex(path: Path, job: Configuration): Iterator[FAIRecord] = {
-    val file = path.getFileSystem(job).open(path)
-    faiSource = Source.fromInputStream(file)
-    faiSource.getLines().map(line => {
-      val spl = line.split("\t")
-      FAIRecord(spl(0), spl(1).toLong, spl(2).toLong, spl(3).toInt, spl(4).toInt)
-    })
-  }
+  private var sizeBuffer1 = 0L
+  private var sizeBuffer2 = 0L
 
   private def setPartialSequencePosition(record: FAIRecord): Unit = {
     /*
@@ -149,31 +136,66 @@ class IndexedFastaReader extends RecordReader[Text, PartialSequence] {
     endByte = startByte + split.getLength - 1
     val inputFile = path.getFileSystem(job).open(path)
 
-    val faiPath = new Path(path.toString + ".fai")
-    faiRecords = readFastaIndex(faiPath, job)
-
-    //Keep only those FAI records that correspond to sequences in this split
-    faiRecords = faiRecords.
-      dropWhile(_.end < startByte).takeWhile(_.start <= endByte)
+    //Keep only those FAI records that correspond to sequences in this split. Splits planned by IndexedFastaFormat
+    //already carry them, otherwise they are looked up in the (cached) index of the file
+    faiRecords = split match {
+      case indexed: IndexedFastaSplit => indexed.getRecords.iterator
+      case _ => FastaIndex.load(path, job).overlapping(startByte, endByte).iterator
+    }
 
-    val inputSplitSize = split.getLength.toInt
+    val inputSplitSize = split.getLength
     val additionalBytes = k + 2
+    val segmentSize = job.getInt("buffer_segment_size", 1 << 30)
+    val useDirectBuffers = job.getBoolean("use_direct_buffers", false)
 
-    //The entire split is read immediately
-    myInputSplitBuffer = new Array[Byte](inputSplitSize + additionalBytes)
+    //If the file is stored on the local file system, the split can be memory-mapped rather than loaded in the heap
+    if (job.getBoolean("mmap_local_files", false)) {
+      myInputSplitBuffer = SegmentedBuffer.map(path, job, startByte, inputSplitSize + additionalBytes, segmentSize)
+    }
 
-    sizeBuffer1 = inputFile.read(startByte, myInputSplitBuffer, 0, inputSplitSize)
+    //Otherwise, splits larger than a segment, as well as the ones read in direct buffers, are read in several segments
+    if (myInputSplitBuffer == null && (useDirectBuffers || inputSplitSize + additionalBytes > segmentSize)) {
+      myInputSplitBuffer = SegmentedBuffer.read(inputFile, startByte, inputSplitSize + additionalBytes, segmentSize,
+        useDirectBuffers)
+    }
 
-    if (sizeBuffer1 <= 0) {
+    if (myInputSplitBuffer != null) {
+      sizeBuffer1 = math.min(inputSplitSize, myInputSplitBuffer.length())
+      sizeBuffer2 = myInputSplitBuffer.length() - sizeBuffer1
+      inputFile.close()
       return
     }
 
-    //Additional characters from the next split
-    sizeBuffer2 = inputFile.read(startByte + sizeBuffer1, myInputSplitBuffer, sizeBuffer1, additionalBytes)
+    //The entire split is read immediately
+    val inputSplitBytes = new Array[Byte](inputSplitSize.toInt + additionalBytes)
+    myInputSplitBuffer = SegmentedBuffer.wrap(ByteBuffer.wrap(inputSplitBytes))
+
+    //Additional characters from the next split are read in background, while the split is being read
+    val nextSplitRead =
+      if (job.getBoolean("async_look_ahead", true)) {
+        AsyncRead.start(inputFile, startByte + inputSplitSize, inputSplitBytes, inputSplitSize.toInt, additionalBytes)
+      } else {
+        null
+      }
+
+    sizeBuffer1 = inputFile.read(startByte, inputSplitBytes, 0, inputSplitSize.toInt)
+
+    if (nextSplitRead != null && sizeBuffer1 == inputSplitSize) {
+      sizeBuffer2 = nextSplitRead.get()
+    } else {
+      if (nextSplitRead != null) {
+        nextSplitRead.cancel()
+      }
+
+      if (sizeBuffer1 > 0) {
+        //Additional characters from the next split
+        sizeBuffer2 = inputFile.read(startByte + sizeBuffer1, inputSplitBytes, sizeBuffer1.toInt, additionalBytes)
+      }
+    }
     inputFile.close()
   }
 
-  private def safeSetBytesToProcess(kmers: Int): Unit = {
+  private def safeSetBytesToProcess(kmers: Long): Unit = {
     if (kmers < 0) {
       currValue.setBytesToProcess(0)
     } else {
@@ -189,41 +211,42 @@ class IndexedFastaReader extends RecordReader[Text, PartialSequence] {
     currKey = new Text(record.id)
     currValue = new PartialSequence
     currValue.setHeader(record.id)
-    currValue.setBuffer(myInputSplitBuffer)
+    currValue.setSegmentedBuffer(myInputSplitBuffer)
+    currValue.setLineGeometry(record.bpsPerLine, record.bytesPerLine)
     if (record.start >= startByte && record.end <= endByte) {
       //Read the sequence in full
       currValue.setSeqPosition(1)
       currValue.setComplete(true)
-      currValue.setStartValue((record.start - startByte).toInt)
-      currValue.setEndValue((record.end - startByte).toInt)
+      currValue.setStartValue(record.start - startByte)
+      currValue.setEndValue(record.end - startByte)
       //Number of k-mers (and newlines) in the value
-      safeSetBytesToProcess((record.end - record.start + 1 - (k - 1)).toInt)
+      safeSetBytesToProcess(record.end - record.start + 1 - (k - 1))
     } else {
       //Read partial
       if (record.start >= startByte) {
         //Started in this split
         currValue.setSeqPosition(1)
         //Skips the sequence header
-        currValue.setStartValue((record.start - startByte).toInt)
+        currValue.setStartValue(record.start - startByte)
       } else {
         //Started previously
         setPartialSequencePosition(record)
-        currValue.setStartValue(0)
+        currValue.setStartValue(0L)
       }
       if (record.end <= endByte) {
         //Sequence ends in this split
         //Excess newline characters at the end will be automatically trimmed
-        currValue.setEndValue((record.end - startByte).toInt)
-        safeSetBytesToProcess(currValue.getEndValue - currValue.getStartValue + 1 - (k - 1))
+        currValue.setEndValue(record.end - startByte)
+        safeSetBytesToProcess(currValue.getEndValueLong - currValue.getStartValueLong + 1 - (k - 1))
       } else {
-        //Sequence reaches into next split
-        currValue.setEndValue(sizeBuffer1 + sizeBuffer2 - 1)
+        //Sequence reaches into next split, and may end within the additional bytes read from it
+        currValue.setEndValue(math.min(record.end - startByte, sizeBuffer1 + sizeBuffer2 - 1))
         //Number of k-mers (mixed with newlines) in the value
-        safeSetBytesToProcess(sizeBuffer1 - currValue.getStartValue)
+        safeSetBytesToProcess(sizeBuffer1 - currValue.getStartValueLong)
 
         //If the extra part in the next split was shorter than k - 1, we have to reduce accordingly
         if (sizeBuffer2 < (k - 1)) currValue.setBytesToProcess(
-          currValue.getBytesToProcess - ((k - 1) - sizeBuffer2))
+          currValue.getBytesToProcessLong - ((k - 1) - sizeBuffer2))
       }
     }
 
@@ -241,6 +264,9 @@ class IndexedFastaReader extends RecordReader[Text, PartialSequence] {
 
   override def close(): Unit = {
     //inputFile has already been closed
-    faiSource.close()
+    if (myInputSplitBuffer != null) {
+      myInputSplitBuffer.close()
+      myInputSplitBuffer = null
+    }
   }
 }
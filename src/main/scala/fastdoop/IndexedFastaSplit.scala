@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop
+
+import java.io.{DataInput, DataOutput}
+
+import org.apache.hadoop.fs.Path
+import org.apache.hadoop.io.{Text, WritableUtils}
+import org.apache.hadoop.mapreduce.lib.input.FileSplit
+
+/**
+ * A FileSplit that also stores the FAI records of the sequences overlapping it, as found when planning the splits of
+ * the job by [[IndexedFastaFormat]]. Readers receiving a split of this type do not need to read the .fai file.
+ *
+ * @param records FAI records of the sequences having at least one byte in this split, in order
+ */
+class IndexedFastaSplit(file: Path, start: Long, length: Long, hosts: Array[String],
+                        private var records: Array[FAIRecord]) extends FileSplit(file, start, length, hosts) {
+
+  def this() = this(null, 0, 0, null, Array.empty)
+
+  /** FAI records of the sequences having at least one byte in this split, in order */
+  def getRecords: Array[FAIRecord] = records
+
+  override def write(out: DataOutput): Unit = {
+    super.write(out)
+    WritableUtils.writeVInt(out, records.length)
+    for (r <- records) {
+      Text.writeString(out, r.id)
+      WritableUtils.writeVLong(out, r.length)
+      WritableUtils.writeVLong(out, r.start)
+      WritableUtils.writeVInt(out, r.bpsPerLine)
+      WritableUtils.writeVInt(out, r.bytesPerLine)
+    }
+  }
+
+  override def readFields(in: DataInput): Unit = {
+    super.readFields(in)
+    records = Array.fill(WritableUtils.readVInt(in)) {
+      FAIRecord(Text.readString(in), WritableUtils.readVLong(in), WritableUtils.readVLong(in),
+        WritableUtils.readVInt(in), WritableUtils.readVInt(in))
+    }
+  }
+
+  override def toString: String =
+    super.toString + s" (${records.length} sequences)"
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.util.Map;
+
+/**
+ * Reads FASTA files with {@code spark.read.format("fasta")}. By default,
+ * records are read by {@link FASTAshortInputFileFormat}, and each row has
+ * the {@code id} and {@code comment} (i.e., the first word of the header
+ * line and the rest of it) and the {@code sequence} of a record, without
+ * newlines.
+ *
+ * With the {@code indexed} option set to true, the file is read by
+ * {@link IndexedFastaFormat}, and it must come with a {@code .fai} index.
+ * In this case, long sequences are split in several rows, having the
+ * {@code id}, the part of the {@code sequence} belonging to an input split,
+ * its position in the sequence ({@code seqPosition}) and whether it holds
+ * the whole sequence ({@code complete}).
+ */
+public class FASTADataSource extends SequenceDataSource {
+
+	@Override
+	public String shortName() {
+		return "fasta";
+	}
+
+	@Override
+	int getRecordType(Map<String, String> options) {
+		String indexed = options.get("indexed");
+
+		return Boolean.parseBoolean(indexed) ? INDEXED_FASTA : FASTA;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.util.Map;
+
+/**
+ * Reads FASTQ files with {@code spark.read.format("fastq")}. Records are
+ * read by {@link FASTQInputFileFormat}, and each row has the {@code id} and
+ * {@code comment} (i.e., the first word of the header line and the rest of
+ * it), the {@code sequence} and the {@code quality} of a record.
+ */
+public class FASTQDataSource extends SequenceDataSource {
+
+	@Override
+	public String shortName() {
+		return "fastq";
+	}
+
+	@Override
+	int getRecordType(Map<String, String> options) {
+		return FASTQ;
+	}
+}
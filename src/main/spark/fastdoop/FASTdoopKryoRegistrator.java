@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import org.apache.spark.serializer.KryoRegistrator;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Registers the records of FASTdoop with the Kryo instances of Spark, so
+ * that they are shuffled and cached (e.g., with
+ * {@code persist(StorageLevel.MEMORY_ONLY_SER)}) by serializing only their
+ * own bytes. It is enabled by setting {@code spark.serializer} to
+ * {@code org.apache.spark.serializer.KryoSerializer} and
+ * {@code spark.kryo.registrator} to {@code fastdoop.FASTdoopKryoRegistrator}.
+ *
+ * Bases are packed, 2 bits per base, when records are read as
+ * {@link PackedSequence} objects (i.e., using
+ * {@link PackedInputFileFormat}).
+ */
+public class FASTdoopKryoRegistrator implements KryoRegistrator {
+
+	@Override
+	public void registerClasses(Kryo kryo) {
+		kryo.register(Record.class, new WritableKryoSerializer<Record>());
+		kryo.register(QRecord.class, new WritableKryoSerializer<QRecord>());
+		kryo.register(PartialSequence.class, new WritableKryoSerializer<PartialSequence>());
+		kryo.register(PackedSequence.class, new WritableKryoSerializer<PackedSequence>());
+	}
+}
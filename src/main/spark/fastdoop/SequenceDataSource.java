@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.util.Map;
+
+import org.apache.spark.sql.connector.catalog.Table;
+import org.apache.spark.sql.connector.catalog.TableProvider;
+import org.apache.spark.sql.connector.expressions.Transform;
+import org.apache.spark.sql.sources.DataSourceRegister;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+
+/**
+ * Spark data source reading the records of FASTA and FASTQ files, by means
+ * of the input formats of FASTdoop, as rows whose columns are the parts of
+ * each record (see {@link FASTADataSource} and {@link FASTQDataSource}).
+ *
+ * The options of the data source are also set in the Hadoop configuration
+ * used by the input format, so that its parameters (e.g.,
+ * {@code look_ahead_buffer_size}) can be given as options of the reader.
+ */
+public abstract class SequenceDataSource implements TableProvider, DataSourceRegister {
+
+	/*
+	 * The kinds of records, and the columns that can be read from them
+	 */
+	static final int FASTA = 0;
+
+	static final int FASTQ = 1;
+
+	static final int INDEXED_FASTA = 2;
+
+	static final StructType FASTA_SCHEMA = new StructType()
+			.add("id", DataTypes.StringType, false)
+			.add("comment", DataTypes.StringType, true)
+			.add("sequence", DataTypes.StringType, false);
+
+	static final StructType FASTQ_SCHEMA = FASTA_SCHEMA
+			.add("quality", DataTypes.StringType, false);
+
+	static final StructType INDEXED_FASTA_SCHEMA = new StructType()
+			.add("id", DataTypes.StringType, false)
+			.add("sequence", DataTypes.StringType, false)
+			.add("seqPosition", DataTypes.LongType, false)
+			.add("complete", DataTypes.BooleanType, false);
+
+	/**
+	 * Returns the kind of the records read with the given options
+	 */
+	abstract int getRecordType(Map<String, String> options);
+
+	@Override
+	public StructType inferSchema(CaseInsensitiveStringMap options) {
+		return getSchema(getRecordType(options));
+	}
+
+	@Override
+	public Table getTable(StructType schema, Transform[] partitioning, Map<String, String> properties) {
+		return new SequenceTable(shortName(), getRecordType(new CaseInsensitiveStringMap(properties)), schema);
+	}
+
+	static StructType getSchema(int recordType) {
+		switch (recordType) {
+		case FASTQ:
+			return FASTQ_SCHEMA;
+		case INDEXED_FASTA:
+			return INDEXED_FASTA_SCHEMA;
+		default:
+			return FASTA_SCHEMA;
+		}
+	}
+}
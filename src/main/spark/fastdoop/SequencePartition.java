@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.spark.sql.connector.read.InputPartition;
+
+/**
+ * An input split planned by an input format of FASTdoop, sent to the
+ * executors in its {@code Writable} form
+ */
+public class SequencePartition implements InputPartition {
+
+	private static final long serialVersionUID = 4108373620591822791L;
+
+	private final String splitClass;
+
+	private final byte[] split;
+
+	private final String[] locations;
+
+	SequencePartition(InputSplit split) throws IOException, InterruptedException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		((Writable) split).write(out);
+
+		this.splitClass = split.getClass().getName();
+		this.split = Arrays.copyOf(out.getData(), out.getLength());
+		this.locations = split.getLocations();
+	}
+
+	@Override
+	public String[] preferredLocations() {
+		return locations;
+	}
+
+	/**
+	 * Returns the input split of this partition
+	 */
+	InputSplit getSplit(Configuration conf) throws IOException {
+		try {
+			InputSplit inputSplit = (InputSplit) ReflectionUtils.newInstance(conf.getClassByName(splitClass), conf);
+			((Writable) inputSplit).readFields(new DataInputStream(new ByteArrayInputStream(split)));
+
+			return inputSplit;
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.apache.spark.sql.connector.read.PartitionReader;
+import org.apache.spark.sql.connector.read.PartitionReaderFactory;
+import org.apache.spark.sql.execution.vectorized.OnHeapColumnVector;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.vectorized.ColumnarBatch;
+
+/**
+ * Creates the readers of the input partitions of a {@link SequenceScan}.
+ * Records are read in batches of columns, filled by copying each required
+ * part of a record straight from the buffer of the input split, without
+ * building strings.
+ */
+public class SequenceReaderFactory implements PartitionReaderFactory {
+
+	private static final long serialVersionUID = -6472960216530380187L;
+
+	static final int DEFAULT_BATCH_SIZE = 4096;
+
+	/*
+	 * The columns that can be read
+	 */
+	private static final int ID = 0;
+
+	private static final int COMMENT = 1;
+
+	private static final int SEQUENCE = 2;
+
+	private static final int QUALITY = 3;
+
+	private static final int SEQ_POSITION = 4;
+
+	private static final int COMPLETE = 5;
+
+	private final int recordType;
+
+	private final StructType requiredSchema;
+
+	private final byte[] conf;
+
+	private final int batchSize;
+
+	SequenceReaderFactory(int recordType, StructType requiredSchema, byte[] conf, int batchSize) {
+		this.recordType = recordType;
+		this.requiredSchema = requiredSchema;
+		this.conf = conf;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public boolean supportColumnarReads(InputPartition partition) {
+		return true;
+	}
+
+	@Override
+	public PartitionReader<ColumnarBatch> createColumnarReader(InputPartition partition) {
+		try {
+			return new ColumnarReader((SequencePartition) partition);
+		} catch (IOException | InterruptedException e) {
+			throw new UncheckedIOException(new IOException("Cannot open the input split", e));
+		}
+	}
+
+	/**
+	 * Returns the rows of the batches read by a columnar reader
+	 */
+	@Override
+	public PartitionReader<InternalRow> createReader(InputPartition partition) {
+		final ColumnarReader reader = (ColumnarReader) createColumnarReader(partition);
+
+		return new PartitionReader<InternalRow>() {
+
+			private int row;
+
+			private int rows;
+
+			@Override
+			public boolean next() throws IOException {
+				if (++row < rows)
+					return true;
+
+				if (!reader.next())
+					return false;
+
+				row = 0;
+				rows = reader.batch.numRows();
+
+				return true;
+			}
+
+			@Override
+			public InternalRow get() {
+				return reader.batch.getRow(row);
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	private class ColumnarReader implements PartitionReader<ColumnarBatch> {
+
+		private final RecordReader<?, ?> reader;
+
+		private final int[] columns;
+
+		private final OnHeapColumnVector[] vectors;
+
+		private final ColumnarBatch batch;
+
+		/*
+		 * Used to remove the newlines of multi-line sequences
+		 */
+		private byte[] scratch = new byte[1024];
+
+		ColumnarReader(SequencePartition partition) throws IOException, InterruptedException {
+			Configuration configuration = new Configuration(false);
+			configuration.readFields(new DataInputStream(new ByteArrayInputStream(conf)));
+
+			TaskAttemptContext context = new TaskAttemptContextImpl(configuration, new TaskAttemptID());
+			InputSplit split = partition.getSplit(configuration);
+
+			reader = SequenceScan.newInputFormat(recordType).createRecordReader(split, context);
+			reader.initialize(split, context);
+
+			columns = new int[requiredSchema.size()];
+
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = getColumn(requiredSchema.fields()[i].name());
+
+			vectors = OnHeapColumnVector.allocateColumns(batchSize, requiredSchema);
+			batch = new ColumnarBatch(vectors);
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			for (OnHeapColumnVector vector : vectors)
+				vector.reset();
+
+			int rows = 0;
+
+			try {
+				while (rows < batchSize && reader.nextKeyValue())
+					add(reader.getCurrentValue(), rows++);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+
+			batch.setNumRows(rows);
+
+			return rows > 0;
+		}
+
+		@Override
+		public ColumnarBatch get() {
+			return batch;
+		}
+
+		@Override
+		public void close() throws IOException {
+			batch.close();
+			reader.close();
+		}
+
+		private void add(Object value, int row) {
+			if (value instanceof Record)
+				add((Record) value, row);
+			else if (value instanceof QRecord)
+				add((QRecord) value, row);
+			else
+				add((PartialSequence) value, row);
+		}
+
+		private void add(Record record, int row) {
+			byte[] buffer = record.getBuffer();
+			ByteBuffer byteBuffer = (buffer == null) ? record.getByteBuffer() : null;
+
+			for (int i = 0; i < columns.length; i++) {
+				switch (columns[i]) {
+				case ID:
+				case COMMENT:
+					putHeader(vectors[i], row, columns[i], buffer, byteBuffer, record.getStartKey(),
+							record.getEndKey() - record.getStartKey() + 1);
+					break;
+				case SEQUENCE:
+					putSequence(vectors[i], row, buffer, byteBuffer, record.getStartValue(),
+							record.getEndValue() - record.getStartValue() + 1);
+					break;
+				}
+			}
+		}
+
+		private void add(QRecord record, int row) {
+			byte[] buffer = record.getBuffer();
+			ByteBuffer byteBuffer = (buffer == null) ? record.getByteBuffer() : null;
+
+			for (int i = 0; i < columns.length; i++) {
+				switch (columns[i]) {
+				case ID:
+				case COMMENT:
+					putHeader(vectors[i], row, columns[i], buffer, byteBuffer, record.getStartKey(),
+							record.getEndKey() - record.getStartKey() + 1);
+					break;
+				case SEQUENCE:
+					putSlice(vectors[i], row, buffer, byteBuffer, record.getStartValue(),
+							record.getEndValue() - record.getStartValue() + 1);
+					break;
+				case QUALITY:
+					putSlice(vectors[i], row, buffer, byteBuffer, record.getStartQuality(),
+							record.getEndQuality() - record.getStartQuality() + 1);
+					break;
+				}
+			}
+		}
+
+		/*
+		 * Fragments do not overlap (see SequenceScan), so the bases of a
+		 * fragment are the ones to process
+		 */
+		private void add(PartialSequence fragment, int row) {
+			for (int i = 0; i < columns.length; i++) {
+				switch (columns[i]) {
+				case ID:
+					byte[] id = fragment.getKey().getBytes(StandardCharsets.UTF_8);
+					vectors[i].putByteArray(row, id, 0, id.length);
+					break;
+				case SEQUENCE:
+					SequenceView view = fragment.getSequenceView();
+					int length = Math.toIntExact(view.getBasesToProcess());
+					ensureScratch(length);
+					view.copy(0, scratch, 0, length);
+					vectors[i].putByteArray(row, scratch, 0, length);
+					break;
+				case SEQ_POSITION:
+					vectors[i].putLong(row, fragment.getSeqPosition());
+					break;
+				case COMPLETE:
+					vectors[i].putBoolean(row, fragment.isComplete());
+					break;
+				}
+			}
+		}
+
+		/*
+		 * Puts the id (i.e., the first word) or the comment (i.e., the
+		 * following words, if any) of the header line stored in the given
+		 * slice, without the carriage return of CRLF files
+		 */
+		private void putHeader(OnHeapColumnVector vector, int row, int column, byte[] buffer, ByteBuffer byteBuffer,
+				int start, int length) {
+			if (buffer == null) {
+				buffer = Utils.getBytes(byteBuffer, start, length);
+				start = 0;
+			}
+
+			int end = start + trimCarriageReturn(buffer, start, length);
+			int space = start;
+
+			while (space < end && buffer[space] != ' ' && buffer[space] != '\t')
+				space++;
+
+			if (column == ID) {
+				vector.putByteArray(row, buffer, start, space - start);
+				return;
+			}
+
+			while (space < end && (buffer[space] == ' ' || buffer[space] == '\t'))
+				space++;
+
+			if (space < end)
+				vector.putByteArray(row, buffer, space, end - space);
+			else
+				vector.putNull(row);
+		}
+
+		/*
+		 * Puts the sequence stored in the given slice, without line
+		 * terminators, as SequenceView does for fragments
+		 */
+		private void putSequence(OnHeapColumnVector vector, int row, byte[] buffer, ByteBuffer byteBuffer, int start,
+				int length) {
+			if (buffer == null) {
+				buffer = Utils.getBytes(byteBuffer, start, length);
+				start = 0;
+			}
+
+			ensureScratch(length);
+			vector.putByteArray(row, scratch, 0,
+					ByteScanner.copyWithoutLineTerminators(buffer, start, start + length, scratch, 0));
+		}
+
+		/*
+		 * Puts the line stored in the given slice (i.e., the sequence or the
+		 * quality of a FASTQ record), without the carriage return of CRLF
+		 * files
+		 */
+		private void putSlice(OnHeapColumnVector vector, int row, byte[] buffer, ByteBuffer byteBuffer, int start,
+				int length) {
+			if (buffer == null) {
+				buffer = Utils.getBytes(byteBuffer, start, length);
+				start = 0;
+			}
+
+			vector.putByteArray(row, buffer, start, trimCarriageReturn(buffer, start, length));
+		}
+
+		private void ensureScratch(int length) {
+			if (scratch.length < length)
+				scratch = new byte[Math.max(length, 2 * scratch.length)];
+		}
+	}
+
+	/*
+	 * Returns the length of the given slice of a line, without the carriage
+	 * return ending it, if any
+	 */
+	private static int trimCarriageReturn(byte[] buffer, int start, int length) {
+		return (length > 0 && buffer[start + length - 1] == '\r') ? length - 1 : length;
+	}
+
+	private static int getColumn(String name) {
+		switch (name) {
+		case "id":
+			return ID;
+		case "comment":
+			return COMMENT;
+		case "sequence":
+			return SEQUENCE;
+		case "quality":
+			return QUALITY;
+		case "seqPosition":
+			return SEQ_POSITION;
+		default:
+			return COMPLETE;
+		}
+	}
+}
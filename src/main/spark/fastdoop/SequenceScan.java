@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.connector.read.Batch;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.apache.spark.sql.connector.read.PartitionReaderFactory;
+import org.apache.spark.sql.connector.read.Scan;
+import org.apache.spark.sql.connector.read.ScanBuilder;
+import org.apache.spark.sql.connector.read.SupportsPushDownRequiredColumns;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Scan of the files of a {@link SequenceTable}, with one input partition
+ * for each input split planned by the input format of FASTdoop. Only the
+ * columns required by the query are read (e.g., selecting the sequences
+ * leaves out headers and qualities).
+ */
+public class SequenceScan implements ScanBuilder, SupportsPushDownRequiredColumns, Scan, Batch {
+
+	private final int recordType;
+
+	private final CaseInsensitiveStringMap options;
+
+	private StructType requiredSchema;
+
+	SequenceScan(int recordType, StructType schema, CaseInsensitiveStringMap options) {
+		this.recordType = recordType;
+		this.requiredSchema = schema;
+		this.options = options;
+	}
+
+	@Override
+	public void pruneColumns(StructType requiredSchema) {
+		this.requiredSchema = requiredSchema;
+	}
+
+	@Override
+	public Scan build() {
+		return this;
+	}
+
+	@Override
+	public StructType readSchema() {
+		return requiredSchema;
+	}
+
+	@Override
+	public String description() {
+		return "FASTdoop " + SequenceDataSource.getSchema(recordType).simpleString() + " ["
+				+ String.join(", ", requiredSchema.fieldNames()) + "]";
+	}
+
+	@Override
+	public Batch toBatch() {
+		return this;
+	}
+
+	private Job job;
+
+	private List<InputSplit> splits;
+
+	/*
+	 * Plans the input splits, once, using a configuration holding the
+	 * options of the data source
+	 */
+	private void planSplits() {
+		if (splits != null)
+			return;
+
+		Configuration conf = new Configuration(SparkSession.active().sparkContext().hadoopConfiguration());
+
+		for (Map.Entry<String, String> option : options.asCaseSensitiveMap().entrySet())
+			if (!option.getKey().equals("path") && !option.getKey().equals("paths"))
+				conf.set(option.getKey(), option.getValue());
+
+		/*
+		 * Fragments of long sequences do not overlap, so that the rows of a
+		 * sequence can be concatenated
+		 */
+		if (recordType == SequenceDataSource.INDEXED_FASTA)
+			conf.setInt("k", 1);
+
+		try {
+			job = Job.getInstance(conf);
+			FileInputFormat.setInputPaths(job, getPaths());
+			splits = newInputFormat(recordType).getSplits(job);
+		} catch (IOException | InterruptedException e) {
+			throw new UncheckedIOException(new IOException("Cannot plan the input splits", e));
+		}
+	}
+
+	private Path[] getPaths() throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+
+		if (options.containsKey("path"))
+			paths.add(new Path(options.get("path")));
+
+		if (options.containsKey("paths"))
+			for (String path : new ObjectMapper().readValue(options.get("paths"), String[].class))
+				paths.add(new Path(path));
+
+		if (paths.isEmpty())
+			throw new IllegalArgumentException("No input path has been given");
+
+		return paths.toArray(new Path[paths.size()]);
+	}
+
+	@Override
+	public InputPartition[] planInputPartitions() {
+		planSplits();
+
+		InputPartition[] partitions = new InputPartition[splits.size()];
+
+		try {
+			for (int i = 0; i < partitions.length; i++)
+				partitions[i] = new SequencePartition(splits.get(i));
+		} catch (IOException | InterruptedException e) {
+			throw new UncheckedIOException(new IOException("Cannot serialize the input splits", e));
+		}
+
+		return partitions;
+	}
+
+	@Override
+	public PartitionReaderFactory createReaderFactory() {
+		planSplits();
+
+		DataOutputBuffer conf = new DataOutputBuffer();
+
+		try {
+			job.getConfiguration().write(conf);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return new SequenceReaderFactory(recordType, requiredSchema,
+				Arrays.copyOf(conf.getData(), conf.getLength()),
+				options.getInt("batch_size", SequenceReaderFactory.DEFAULT_BATCH_SIZE));
+	}
+
+	static InputFormat<?, ?> newInputFormat(int recordType) {
+		switch (recordType) {
+		case SequenceDataSource.FASTQ:
+			return new FASTQInputFileFormat();
+		case SequenceDataSource.INDEXED_FASTA:
+			return new IndexedFastaFormat();
+		default:
+			return new FASTAshortInputFileFormat();
+		}
+	}
+}
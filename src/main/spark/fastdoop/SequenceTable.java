@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fastdoop;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.spark.sql.connector.catalog.SupportsRead;
+import org.apache.spark.sql.connector.catalog.TableCapability;
+import org.apache.spark.sql.connector.read.ScanBuilder;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+
+/**
+ * The FASTA or FASTQ files read by a {@link SequenceDataSource}
+ */
+public class SequenceTable implements SupportsRead {
+
+	private final String name;
+
+	private final int recordType;
+
+	private final StructType schema;
+
+	SequenceTable(String name, int recordType, StructType schema) {
+		this.name = name;
+		this.recordType = recordType;
+		this.schema = schema;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public StructType schema() {
+		return schema;
+	}
+
+	@Override
+	public Set<TableCapability> capabilities() {
+		return EnumSet.of(TableCapability.BATCH_READ);
+	}
+
+	@Override
+	public ScanBuilder newScanBuilder(CaseInsensitiveStringMap options) {
+		return new SequenceScan(recordType, schema, options);
+	}
+}